@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2016 venshine.cn@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bandou.library.image;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BitmapUtils各效果的单线程耗时与内存分配测试，图片尺寸为4:3的1、4、12、48MP
+ * <p>
+ * run()写入预先分配的数组，只衡量像素计算；
+ * runAllocating()与不使用复用池的BitmapUtils一样每次新建像素数组，配合gc profiler（已在build.gradle中开启）观察分配速率。
+ * <pre>
+ * ./gradlew :benchmark:jmh
+ * </pre>
+ *
+ * @author venshine
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+public class EffectsBenchmark {
+
+    @Param({"1", "4", "12", "48"})
+    public int megapixels;
+
+    @Param({"soften", "sharpen", "emboss", "sunshine", "nostalgic", "film", "grey"})
+    public String filter;
+
+    private int width;
+    private int height;
+    private PixelEngine engine;
+    private PixelEngine.BandFilter bandFilter;
+    private boolean inPlace;
+    private int[] src;
+    private int[] dst;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        switch (megapixels) {
+            case 1:
+                width = 1152;
+                height = 864;
+                break;
+            case 4:
+                width = 2304;
+                height = 1728;
+                break;
+            case 12:
+                width = 4000;
+                height = 3000;
+                break;
+            default:
+                width = 8000;
+                height = 6000;
+                break;
+        }
+        engine = new PixelEngine(1);
+        src = new int[width * height];
+        dst = new int[width * height];
+        Random random = new Random(42);
+        for (int i = 0; i < src.length; i++) {
+            src[i] = 0xFF000000 | random.nextInt(0xFFFFFF);
+        }
+        inPlace = true;
+        if ("soften".equals(filter)) {
+            bandFilter = PixelFilters.SOFTEN;
+            inPlace = false;
+        } else if ("sharpen".equals(filter)) {
+            bandFilter = PixelFilters.SHARPEN;
+            inPlace = false;
+        } else if ("emboss".equals(filter)) {
+            bandFilter = PixelFilters.EMBOSS;
+            inPlace = false;
+        } else if ("sunshine".equals(filter)) {
+            bandFilter = PixelFilters.sunshine(width / 2, height / 2);
+        } else if ("nostalgic".equals(filter)) {
+            bandFilter = PixelFilters.NOSTALGIC;
+        } else if ("film".equals(filter)) {
+            bandFilter = PixelFilters.FILM;
+        } else {
+            bandFilter = PixelFilters.GREY;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        engine.shutdown();
+    }
+
+    @Benchmark
+    public int[] run() {
+        engine.run(src, dst, width, height, bandFilter);
+        return dst;
+    }
+
+    @Benchmark
+    public int[] runAllocating() {
+        // 与BitmapUtils中getPixels后的处理一致：点操作只需一个数组，卷积需要两个
+        int[] pixels = new int[width * height];
+        System.arraycopy(src, 0, pixels, 0, pixels.length);
+        int[] out = inPlace ? pixels : new int[width * height];
+        engine.run(pixels, out, width, height, bandFilter);
+        return out;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2016 venshine.cn@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bandou.library.image;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PixelEngine随线程数扩展的吞吐量测试，12MP图片（4000x3000）
+ *
+ * @author venshine
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PixelEngineBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"soften", "sharpen", "emboss", "sunshine", "nostalgic", "film", "grey"})
+    public String filter;
+
+    private static final int WIDTH = 4000;
+    private static final int HEIGHT = 3000;
+
+    private PixelEngine engine;
+    private PixelEngine.BandFilter bandFilter;
+    private int[] src;
+    private int[] dst;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        engine = new PixelEngine(threads);
+        src = new int[WIDTH * HEIGHT];
+        dst = new int[WIDTH * HEIGHT];
+        Random random = new Random(42);
+        for (int i = 0; i < src.length; i++) {
+            src[i] = 0xFF000000 | random.nextInt(0xFFFFFF);
+        }
+        if ("soften".equals(filter)) {
+            bandFilter = PixelFilters.SOFTEN;
+        } else if ("sharpen".equals(filter)) {
+            bandFilter = PixelFilters.SHARPEN;
+        } else if ("emboss".equals(filter)) {
+            bandFilter = PixelFilters.EMBOSS;
+        } else if ("sunshine".equals(filter)) {
+            bandFilter = PixelFilters.sunshine(WIDTH / 2, HEIGHT / 2);
+        } else if ("nostalgic".equals(filter)) {
+            bandFilter = PixelFilters.NOSTALGIC;
+        } else if ("film".equals(filter)) {
+            bandFilter = PixelFilters.FILM;
+        } else {
+            bandFilter = PixelFilters.GREY;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        engine.shutdown();
+    }
+
+    @Benchmark
+    public int[] run() {
+        engine.run(src, dst, WIDTH, HEIGHT, bandFilter);
+        return dst;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2016 venshine.cn@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bandou.library.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 文件复制耗时：1KB字节数组逐块复制与FileCopy（transferTo、流复制）对比
+ *
+ * @author venshine
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+public class FileCopyBenchmark {
+
+    @Param({"1", "64", "512", "2048"})
+    public int sizeMb;
+
+    @Param({"bytes1k", "transferTo", "stream"})
+    public String method;
+
+    private File src;
+    private File dest;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        src = File.createTempFile("copy-src", ".bin");
+        dest = File.createTempFile("copy-dest", ".bin");
+        byte[] block = new byte[1024 * 1024];
+        new Random(42).nextBytes(block);
+        OutputStream os = new FileOutputStream(src);
+        try {
+            for (int i = 0; i < sizeMb; i++) {
+                os.write(block);
+            }
+        } finally {
+            os.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        src.delete();
+        dest.delete();
+    }
+
+    @Benchmark
+    public long copy() throws IOException {
+        if ("bytes1k".equals(method)) {
+            return copyBytes(src, dest);
+        }
+        InputStream is = new FileInputStream(src);
+        try {
+            if ("transferTo".equals(method)) {
+                return new FileCopy().copy(is, dest, false);
+            }
+            // 包装后不是FileInputStream，走直接内存缓冲区
+            return new FileCopy().copy(new WrappedInputStream(is), dest, false);
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * 与原FileUtils.writeFile相同的1KB数组复制
+     */
+    private static long copyBytes(File src, File dest) throws IOException {
+        InputStream is = new FileInputStream(src);
+        OutputStream os = new FileOutputStream(dest);
+        try {
+            byte[] data = new byte[1024];
+            long total = 0;
+            int length;
+            while ((length = is.read(data)) != -1) {
+                os.write(data, 0, length);
+                total += length;
+            }
+            os.flush();
+            return total;
+        } finally {
+            is.close();
+            os.close();
+        }
+    }
+
+    private static final class WrappedInputStream extends InputStream {
+
+        private final InputStream in;
+
+        WrappedInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return in.read(b, off, len);
+        }
+    }
+}
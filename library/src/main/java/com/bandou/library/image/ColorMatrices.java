@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2016 venshine.cn@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bandou.library.image;
+
+/**
+ * 4x5颜色矩阵运算，数组布局与android.graphics.ColorMatrix一致
+ * <pre>
+ *   [ a, b, c, d, e,
+ *     f, g, h, i, j,
+ *     k, l, m, n, o,
+ *     p, q, r, s, t ]
+ *
+ *   R' = a*R + b*G + c*B + d*A + e;
+ *   G' = f*R + g*G + h*B + i*A + j;
+ *   B' = k*R + l*G + m*B + n*A + o;
+ *   A' = p*R + q*G + r*B + s*A + t;
+ * </pre>
+ *
+ * @author venshine
+ */
+public final class ColorMatrices {
+
+    private ColorMatrices() {
+        throw new AssertionError();
+    }
+
+    /**
+     * 单位矩阵
+     *
+     * @return the float [ ]
+     */
+    public static float[] identity() {
+        float[] m = new float[20];
+        m[0] = m[6] = m[12] = m[18] = 1;
+        return m;
+    }
+
+    /**
+     * 缩放矩阵，同ColorMatrix.setScale
+     *
+     * @param rScale the r scale
+     * @param gScale the g scale
+     * @param bScale the b scale
+     * @param aScale the a scale
+     * @return the float [ ]
+     */
+    public static float[] scale(float rScale, float gScale, float bScale, float aScale) {
+        float[] m = new float[20];
+        m[0] = rScale;
+        m[6] = gScale;
+        m[12] = bScale;
+        m[18] = aScale;
+        return m;
+    }
+
+    /**
+     * 饱和度矩阵，同ColorMatrix.setSaturation
+     *
+     * @param sat 0为灰度，1为原图
+     * @return the float [ ]
+     */
+    public static float[] saturation(float sat) {
+        float[] m = identity();
+        final float invSat = 1 - sat;
+        final float r = 0.213f * invSat;
+        final float g = 0.715f * invSat;
+        final float b = 0.072f * invSat;
+        m[0] = r + sat;
+        m[1] = g;
+        m[2] = b;
+        m[5] = r;
+        m[6] = g + sat;
+        m[7] = b;
+        m[10] = r;
+        m[11] = g;
+        m[12] = b + sat;
+        return m;
+    }
+
+    /**
+     * 绕颜色轴旋转，同ColorMatrix.setRotate
+     *
+     * @param axis    0红，1绿，2蓝
+     * @param degrees the degrees
+     * @return the float [ ]
+     */
+    public static float[] rotate(int axis, float degrees) {
+        float[] m = identity();
+        double radians = degrees * Math.PI / 180d;
+        float cosine = (float) Math.cos(radians);
+        float sine = (float) Math.sin(radians);
+        switch (axis) {
+            case 0:
+                m[6] = m[12] = cosine;
+                m[7] = sine;
+                m[11] = -sine;
+                break;
+            case 1:
+                m[0] = m[12] = cosine;
+                m[2] = -sine;
+                m[10] = sine;
+                break;
+            case 2:
+                m[0] = m[6] = cosine;
+                m[1] = sine;
+                m[5] = -sine;
+                break;
+            default:
+                throw new IllegalArgumentException("axis must be 0, 1 or 2.");
+        }
+        return m;
+    }
+
+    /**
+     * 矩阵相乘，返回的矩阵等价于先应用second再应用first，同ColorMatrix.setConcat(first, second)
+     *
+     * @param first  后应用的矩阵
+     * @param second 先应用的矩阵
+     * @return the float [ ]
+     */
+    public static float[] concat(float[] first, float[] second) {
+        float[] result = new float[20];
+        int index = 0;
+        for (int j = 0; j < 20; j += 5) {
+            for (int i = 0; i < 4; i++) {
+                result[index++] = first[j] * second[i]
+                        + first[j + 1] * second[i + 5]
+                        + first[j + 2] * second[i + 10]
+                        + first[j + 3] * second[i + 15];
+            }
+            result[index++] = first[j] * second[4]
+                    + first[j + 1] * second[9]
+                    + first[j + 2] * second[14]
+                    + first[j + 3] * second[19]
+                    + first[j + 4];
+        }
+        return result;
+    }
+
+    /**
+     * 将颜色矩阵包装为点操作滤镜，src与dst可以为同一数组
+     *
+     * @param matrix the matrix
+     * @return the band filter
+     */
+    public static PixelEngine.BandFilter filter(float[] matrix) {
+        if (matrix == null || matrix.length != 20) {
+            throw new IllegalArgumentException("matrix must have 20 elements.");
+        }
+        return new MatrixFilter(matrix);
+    }
+
+    /**
+     * 12位定点数实现的颜色矩阵滤镜
+     */
+    private static final class MatrixFilter implements PixelEngine.BandFilter {
+
+        private static final int SHIFT = 12;
+        private static final int ONE = 1 << SHIFT;
+        private static final int HALF = ONE >> 1;
+
+        private final int[] m = new int[20];
+
+        MatrixFilter(float[] matrix) {
+            for (int i = 0; i < 20; i++) {
+                // 系数与偏移量（0~255）统一放大为定点数
+                m[i] = Math.round(matrix[i] * ONE);
+            }
+        }
+
+        @Override
+        public void filter(int[] src, int[] dst, int width, int height, int startRow, int endRow) {
+            final int[] m = this.m;
+            for (int i = startRow * width, end = endRow * width; i < end; i++) {
+                int c = src[i];
+                int a = c >>> 24;
+                int r = (c >> 16) & 0xFF;
+                int g = (c >> 8) & 0xFF;
+                int b = c & 0xFF;
+                int nr = (m[0] * r + m[1] * g + m[2] * b + m[3] * a + m[4] + HALF) >> SHIFT;
+                int ng = (m[5] * r + m[6] * g + m[7] * b + m[8] * a + m[9] + HALF) >> SHIFT;
+                int nb = (m[10] * r + m[11] * g + m[12] * b + m[13] * a + m[14] + HALF) >> SHIFT;
+                int na = (m[15] * r + m[16] * g + m[17] * b + m[18] * a + m[19] + HALF) >> SHIFT;
+                dst[i] = (PixelFilters.clamp(na) << 24) | (PixelFilters.clamp(nr) << 16)
+                        | (PixelFilters.clamp(ng) << 8) | PixelFilters.clamp(nb);
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2016 venshine.cn@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bandou.library.image;
+
+import com.bandou.library.image.PixelEngine.BandFilter;
+
+/**
+ * 按行流式执行的整数卷积
+ * <p>
+ * 只保留卷积核高度行数的环形缓冲区，逐行读入源像素、逐行写出结果，
+ * 额外内存为O(width * kernelHeight)，与图片高度无关，适合处理超大图片。
+ * 超出图片范围的像素取最近的边缘像素，结果保留中心像素的alpha。
+ * 由于写出第y行时第y行及之前的源像素已全部读入缓冲区，源与目标可以是同一张图片。
+ *
+ * @author venshine
+ */
+public final class Convolution {
+
+    private Convolution() {
+        throw new AssertionError();
+    }
+
+    /**
+     * 源像素，按行读取
+     */
+    public interface RowSource {
+        /**
+         * 读取一行像素
+         *
+         * @param buffer 目标数组
+         * @param offset 写入位置，需要写入width个像素
+         * @param row    行号
+         */
+        void readRow(int[] buffer, int offset, int row);
+    }
+
+    /**
+     * 结果像素，按行写出
+     */
+    public interface RowSink {
+        /**
+         * 写出一行像素，方法返回后buffer会被复用
+         *
+         * @param buffer 结果数组
+         * @param offset 起始位置，共width个像素
+         * @param row    行号
+         */
+        void writeRow(int[] buffer, int offset, int row);
+    }
+
+    /**
+     * 流式卷积
+     *
+     * @param kernel the kernel
+     * @param width  图片宽度
+     * @param height 图片高度
+     * @param source 源像素
+     * @param sink   结果像素
+     */
+    public static void stream(Kernel kernel, int width, int height, RowSource source, RowSink sink) {
+        stream(kernel, width, height, 0, height, source, sink);
+    }
+
+    /**
+     * 流式卷积，只输出[startRow, endRow)行，需要的上下相邻行会自动读取
+     *
+     * @param kernel   the kernel
+     * @param width    图片宽度
+     * @param height   图片高度
+     * @param startRow 起始行，包含
+     * @param endRow   结束行，不包含
+     * @param source   源像素
+     * @param sink     结果像素
+     */
+    public static void stream(Kernel kernel, int width, int height, int startRow, int endRow,
+                              RowSource source, RowSink sink) {
+        if (width <= 0 || startRow < 0 || endRow > height || startRow >= endRow) {
+            return;
+        }
+        final int kh = kernel.getHeight();
+        final int rx = kernel.getRadiusX();
+        final int ry = kernel.getRadiusY();
+        final int stride = width + 2 * rx;
+        final int[] ring = new int[kh * stride];
+        final int[] rowStarts = new int[kh];
+        final int[] out = new int[width];
+        final int[] weights = kernel.getWeights();
+        int loaded = -1;
+        for (int y = startRow; y < endRow; y++) {
+            int last = Math.min(height - 1, y + ry);
+            for (int row = Math.max(loaded + 1, y - ry < 0 ? 0 : y - ry); row <= last; row++) {
+                int base = (row % kh) * stride;
+                source.readRow(ring, base + rx, row);
+                // 左右两侧填充边缘像素
+                int left = ring[base + rx];
+                int right = ring[base + rx + width - 1];
+                for (int i = 0; i < rx; i++) {
+                    ring[base + i] = left;
+                    ring[base + rx + width + i] = right;
+                }
+            }
+            loaded = last;
+            for (int ky = 0; ky < kh; ky++) {
+                int row = y + ky - ry;
+                row = row < 0 ? 0 : (row >= height ? height - 1 : row);
+                rowStarts[ky] = (row % kh) * stride;
+            }
+            convolveRow(ring, rowStarts, weights, kernel.getWidth(), rx, ry, kernel.getDivisor(),
+                    kernel.getBias(), out, width);
+            sink.writeRow(out, 0, y);
+        }
+    }
+
+    /**
+     * 将卷积核包装为{@link PixelEngine}使用的滤镜，src与dst必须为不同数组
+     *
+     * @param kernel the kernel
+     * @return the band filter
+     */
+    public static BandFilter filter(final Kernel kernel) {
+        return new BandFilter() {
+            @Override
+            public void filter(final int[] src, final int[] dst, final int width, int height,
+                               int startRow, int endRow) {
+                stream(kernel, width, height, startRow, endRow, new RowSource() {
+                    @Override
+                    public void readRow(int[] buffer, int offset, int row) {
+                        System.arraycopy(src, row * width, buffer, offset, width);
+                    }
+                }, new RowSink() {
+                    @Override
+                    public void writeRow(int[] buffer, int offset, int row) {
+                        System.arraycopy(buffer, offset, dst, row * width, width);
+                    }
+                });
+            }
+        };
+    }
+
+    private static void convolveRow(int[] ring, int[] rowStarts, int[] weights, int kw, int rx, int ry,
+                                    int divisor, int bias, int[] out, int width) {
+        final int kh = rowStarts.length;
+        final int center = rowStarts[ry] + rx;
+        for (int x = 0; x < width; x++) {
+            int r = 0;
+            int g = 0;
+            int b = 0;
+            int wi = 0;
+            for (int ky = 0; ky < kh; ky++) {
+                int pos = rowStarts[ky] + x;
+                for (int kx = 0; kx < kw; kx++) {
+                    int weight = weights[wi++];
+                    int c = ring[pos + kx];
+                    r += weight * ((c >> 16) & 0xFF);
+                    g += weight * ((c >> 8) & 0xFF);
+                    b += weight * (c & 0xFF);
+                }
+            }
+            out[x] = (ring[center + x] & 0xFF000000)
+                    | (PixelFilters.clamp(r / divisor + bias) << 16)
+                    | (PixelFilters.clamp(g / divisor + bias) << 8)
+                    | PixelFilters.clamp(b / divisor + bias);
+        }
+    }
+}
@@ -0,0 +1,391 @@
+/*
+ * Copyright (C) 2016 venshine.cn@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bandou.library.image;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 滤镜流水线，将多个效果合并到同一组像素数组上执行
+ * <p>
+ * 构建时相邻的颜色矩阵会相乘合并为一个矩阵；相邻的点操作（颜色矩阵、灰度、怀旧等）
+ * 会融合为一次遍历，每一行依次执行所有点操作后再处理下一行；
+ * 卷积操作在像素数组与一个复用的临时数组之间交替读写。
+ * <pre>
+ * FilterPipeline pipeline = new FilterPipeline.Builder()
+ *         .lum(140).hue(127).saturation(160).sharpen()
+ *         .build();
+ * int[] result = pipeline.apply(pixels, width, height);
+ * </pre>
+ *
+ * @author venshine
+ */
+public final class FilterPipeline {
+
+    private static final int TYPE_POINT = 0;
+    private static final int TYPE_KERNEL = 1;
+    private static final int TYPE_BLUR = 2;
+
+    private final List<Stage> stages;
+    private final boolean needsScratch;
+
+    private FilterPipeline(List<Stage> stages) {
+        this.stages = Collections.unmodifiableList(stages);
+        boolean scratch = false;
+        for (Stage stage : stages) {
+            if (stage.type != TYPE_POINT) {
+                scratch = true;
+                break;
+            }
+        }
+        this.needsScratch = scratch;
+    }
+
+    /**
+     * 是否包含需要临时数组的卷积操作
+     *
+     * @return the boolean
+     */
+    public boolean needsScratch() {
+        return needsScratch;
+    }
+
+    /**
+     * 合并后实际执行的遍历次数
+     *
+     * @return the pass count
+     */
+    public int getPassCount() {
+        return stages.size();
+    }
+
+    /**
+     * Apply the pipeline, allocate a scratch buffer only if a convolution step exists.
+     * 执行流水线，仅在存在卷积操作时分配临时数组
+     *
+     * @param pixels ARGB像素，会被修改
+     * @param width  the width
+     * @param height the height
+     * @return 保存结果的数组，为pixels或临时数组
+     */
+    public int[] apply(int[] pixels, int width, int height) {
+        return apply(pixels, needsScratch ? new int[width * height] : null, width, height);
+    }
+
+    /**
+     * Apply the pipeline with a caller supplied scratch buffer.
+     * 使用调用方提供的临时数组执行流水线
+     *
+     * @param pixels  ARGB像素，会被修改
+     * @param scratch 临时数组，长度至少为width * height，不含卷积操作时可以为null
+     * @param width   the width
+     * @param height  the height
+     * @return 保存结果的数组，为pixels或scratch
+     */
+    public int[] apply(int[] pixels, int[] scratch, int width, int height) {
+        if (needsScratch && (scratch == null || scratch.length < width * height)) {
+            throw new IllegalArgumentException("scratch is smaller than width * height.");
+        }
+        PixelEngine engine = PixelEngine.getDefault();
+        int[] current = pixels;
+        int[] other = scratch;
+        for (Stage stage : stages) {
+            switch (stage.type) {
+                case TYPE_POINT:
+                    engine.run(current, current, width, height, stage.filter);
+                    break;
+                case TYPE_KERNEL:
+                    engine.run(current, other, width, height, stage.filter);
+                    int[] temp = current;
+                    current = other;
+                    other = temp;
+                    break;
+                case TYPE_BLUR:
+                    GaussianBlur.blur(current, other, width, height, stage.radius);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return current;
+    }
+
+    private static final class Stage {
+        final int type;
+        final PixelEngine.BandFilter filter;
+        final int radius;
+
+        Stage(int type, PixelEngine.BandFilter filter, int radius) {
+            this.type = type;
+            this.filter = filter;
+            this.radius = radius;
+        }
+    }
+
+    /**
+     * 逐行依次执行多个点操作，使一行像素在缓存中时完成所有处理
+     */
+    private static final class FusedPointFilter implements PixelEngine.BandFilter {
+
+        private final PixelEngine.BandFilter[] filters;
+
+        FusedPointFilter(List<PixelEngine.BandFilter> filters) {
+            this.filters = filters.toArray(new PixelEngine.BandFilter[filters.size()]);
+        }
+
+        @Override
+        public void filter(int[] src, int[] dst, int width, int height, int startRow, int endRow) {
+            for (int row = startRow; row < endRow; row++) {
+                filters[0].filter(src, dst, width, height, row, row + 1);
+                for (int i = 1; i < filters.length; i++) {
+                    filters[i].filter(dst, dst, width, height, row, row + 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * The type Builder.
+     */
+    public static final class Builder {
+
+        private final List<Object> steps = new ArrayList<Object>();
+
+        /**
+         * 添加颜色矩阵，相邻的颜色矩阵会合并
+         *
+         * @param matrix 4x5颜色矩阵
+         * @return the builder
+         */
+        public Builder colorMatrix(float[] matrix) {
+            if (matrix == null || matrix.length != 20) {
+                throw new IllegalArgumentException("matrix must have 20 elements.");
+            }
+            steps.add(matrix.clone());
+            return this;
+        }
+
+        /**
+         * 亮度，参数含义同BitmapUtils.lum
+         *
+         * @param lumValue 亮度值，127为原图
+         * @return the builder
+         */
+        public Builder lum(int lumValue) {
+            float value = lumValue * 1.0F / 127;
+            return colorMatrix(ColorMatrices.scale(value, value, value, 1));
+        }
+
+        /**
+         * 色相，参数含义及效果同BitmapUtils.hue
+         *
+         * @param hueValue 色相值，127为原图
+         * @return the builder
+         */
+        public Builder hue(int hueValue) {
+            float value = (hueValue - 127) * 1.0F / 127 * 180;
+            return colorMatrix(ColorMatrices.rotate(2, value));
+        }
+
+        /**
+         * 饱和度，参数含义同BitmapUtils.saturation
+         *
+         * @param saturationValue 饱和度值，127为原图
+         * @return the builder
+         */
+        public Builder saturation(int saturationValue) {
+            return colorMatrix(ColorMatrices.saturation(saturationValue * 1.0F / 127));
+        }
+
+        /**
+         * 添加点操作滤镜，要求src与dst为同一数组时结果正确
+         *
+         * @param filter the filter
+         * @return the builder
+         */
+        public Builder point(PixelEngine.BandFilter filter) {
+            steps.add(new Stage(TYPE_POINT, filter, 0));
+            return this;
+        }
+
+        /**
+         * 添加卷积滤镜，从当前数组读取，写入另一个数组
+         *
+         * @param filter the filter
+         * @return the builder
+         */
+        public Builder convolve(PixelEngine.BandFilter filter) {
+            steps.add(new Stage(TYPE_KERNEL, filter, 0));
+            return this;
+        }
+
+        /**
+         * 添加自定义整数卷积核
+         *
+         * @param kernel the kernel
+         * @return the builder
+         */
+        public Builder convolve(Kernel kernel) {
+            return convolve(Convolution.filter(kernel));
+        }
+
+        /**
+         * 按通道查找表映射颜色
+         *
+         * @param r 红色通道查找表，长度256
+         * @param g 绿色通道查找表，长度256
+         * @param b 蓝色通道查找表，长度256
+         * @return the builder
+         */
+        public Builder curves(int[] r, int[] g, int[] b) {
+            return point(LutFilters.curves(r, g, b));
+        }
+
+        /**
+         * Grey builder.
+         *
+         * @return the builder
+         */
+        public Builder grey() {
+            return point(PixelFilters.GREY);
+        }
+
+        /**
+         * Nostalgic builder.
+         *
+         * @return the builder
+         */
+        public Builder nostalgic() {
+            return point(PixelFilters.NOSTALGIC);
+        }
+
+        /**
+         * Film builder.
+         *
+         * @return the builder
+         */
+        public Builder film() {
+            return point(PixelFilters.FILM);
+        }
+
+        /**
+         * Sunshine builder.
+         *
+         * @param centerX 光源在X轴的位置
+         * @param centerY 光源在Y轴的位置
+         * @return the builder
+         */
+        public Builder sunshine(int centerX, int centerY) {
+            return point(PixelFilters.sunshine(centerX, centerY));
+        }
+
+        /**
+         * 暗角
+         *
+         * @param centerX  中心在X轴的位置
+         * @param centerY  中心在Y轴的位置
+         * @param radius   半径
+         * @param strength 0~1，边缘变暗的程度
+         * @return the builder
+         */
+        public Builder vignette(int centerX, int centerY, int radius, float strength) {
+            return point(RadialFilters.vignette(centerX, centerY, radius, strength));
+        }
+
+        /**
+         * Soften builder.
+         *
+         * @return the builder
+         */
+        public Builder soften() {
+            return convolve(PixelFilters.SOFTEN);
+        }
+
+        /**
+         * Sharpen builder.
+         *
+         * @return the builder
+         */
+        public Builder sharpen() {
+            return convolve(PixelFilters.SHARPEN);
+        }
+
+        /**
+         * Emboss builder.
+         *
+         * @return the builder
+         */
+        public Builder emboss() {
+            return convolve(PixelFilters.EMBOSS);
+        }
+
+        /**
+         * 高斯模糊
+         *
+         * @param radius 模糊半径（即高斯核的标准差）
+         * @return the builder
+         */
+        public Builder blur(int radius) {
+            if (radius >= 1) {
+                steps.add(new Stage(TYPE_BLUR, null, radius));
+            }
+            return this;
+        }
+
+        /**
+         * 合并颜色矩阵、融合点操作并生成流水线
+         *
+         * @return the filter pipeline
+         */
+        public FilterPipeline build() {
+            List<Stage> stages = new ArrayList<Stage>();
+            List<PixelEngine.BandFilter> points = new ArrayList<PixelEngine.BandFilter>();
+            float[] matrix = null;
+            for (Object step : steps) {
+                if (step instanceof float[]) {
+                    matrix = matrix == null ? (float[]) step : ColorMatrices.concat((float[]) step, matrix);
+                    continue;
+                }
+                if (matrix != null) {
+                    points.add(ColorMatrices.filter(matrix));
+                    matrix = null;
+                }
+                Stage stage = (Stage) step;
+                if (stage.type == TYPE_POINT) {
+                    points.add(stage.filter);
+                } else {
+                    flushPoints(stages, points);
+                    stages.add(stage);
+                }
+            }
+            if (matrix != null) {
+                points.add(ColorMatrices.filter(matrix));
+            }
+            flushPoints(stages, points);
+            return new FilterPipeline(stages);
+        }
+
+        private static void flushPoints(List<Stage> stages, List<PixelEngine.BandFilter> points) {
+            if (points.isEmpty()) {
+                return;
+            }
+            PixelEngine.BandFilter filter = points.size() == 1 ? points.get(0) : new FusedPointFilter(points);
+            stages.add(new Stage(TYPE_POINT, filter, 0));
+            points.clear();
+        }
+    }
+}
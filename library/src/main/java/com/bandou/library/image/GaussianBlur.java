@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2016 venshine.cn@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bandou.library.image;
+
+/**
+ * 任意半径的高斯模糊
+ * <p>
+ * 使用三次盒式模糊（box blur）近似高斯核，每次盒式模糊拆分为水平、垂直两个一维滑动窗口，
+ * 每个像素的计算量与半径无关。每个一维pass在写出时对结果做转置，
+ * 这样垂直方向也按行访问内存，并且两个方向都可以交给{@link PixelEngine}按行并行。
+ *
+ * @author venshine
+ */
+public final class GaussianBlur {
+
+    /**
+     * 近似高斯核使用的盒式模糊次数
+     */
+    private static final int BOX_COUNT = 3;
+
+    private GaussianBlur() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Blur the whole image in place.
+     * 对整张图片进行模糊
+     *
+     * @param pixels ARGB像素
+     * @param width  the width
+     * @param height the height
+     * @param radius 模糊半径（即高斯核的标准差），小于1时不处理
+     */
+    public static void blur(int[] pixels, int width, int height, int radius) {
+        blur(pixels, width, 0, 0, width, height, radius);
+    }
+
+    /**
+     * Blur a region of the image in place, pixels outside the region are not read.
+     * 对指定区域进行模糊，区域外的像素既不读取也不修改
+     *
+     * @param pixels ARGB像素
+     * @param stride 每行像素数
+     * @param x      区域左上角x
+     * @param y      区域左上角y
+     * @param width  区域宽度
+     * @param height 区域高度
+     * @param radius 模糊半径（即高斯核的标准差），小于1时不处理
+     */
+    public static void blur(int[] pixels, int stride, int x, int y, int width, int height, int radius) {
+        blur(pixels, stride, x, y, width, height, radius, null, null);
+    }
+
+    /**
+     * Blur a region of the image in place with caller supplied buffers.
+     * 使用调用方提供的数组对指定区域进行模糊
+     *
+     * @param pixels  ARGB像素
+     * @param stride  每行像素数
+     * @param x       区域左上角x
+     * @param y       区域左上角y
+     * @param width   区域宽度
+     * @param height  区域高度
+     * @param radius  模糊半径（即高斯核的标准差），小于1时不处理
+     * @param work    区域像素数组，为null时新建
+     * @param scratch 临时数组，为null时新建
+     */
+    public static void blur(int[] pixels, int stride, int x, int y, int width, int height, int radius,
+                            int[] work, int[] scratch) {
+        if (x < 0 || y < 0 || width <= 0 || height <= 0 || x + width > stride
+                || (y + height - 1) * stride + x + width > pixels.length) {
+            throw new IllegalArgumentException("Region is out of the pixel buffer.");
+        }
+        if (radius < 1) {
+            return;
+        }
+        if (scratch == null || scratch.length < width * height) {
+            scratch = new int[width * height];
+        }
+        if (x == 0 && y == 0 && width == stride) {
+            // 区域即为整张图片，直接原地处理
+            blur(pixels, scratch, width, height, radius);
+            return;
+        }
+        if (work == null || work.length < width * height) {
+            work = new int[width * height];
+        }
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(pixels, (y + row) * stride + x, work, row * width, width);
+        }
+        blur(work, scratch, width, height, radius);
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(work, row * width, pixels, (y + row) * stride + x, width);
+        }
+    }
+
+    /**
+     * Blur with a caller supplied scratch buffer, the result is left in {@code pixels}.
+     * 使用调用方提供的临时数组进行模糊，结果写回pixels
+     *
+     * @param pixels  ARGB像素，长度至少为width * height
+     * @param scratch 临时数组，长度至少为width * height
+     * @param width   the width
+     * @param height  the height
+     * @param radius  模糊半径（即高斯核的标准差）
+     */
+    public static void blur(int[] pixels, int[] scratch, int width, int height, int radius) {
+        if (radius < 1) {
+            return;
+        }
+        PixelEngine engine = PixelEngine.getDefault();
+        int[] boxes = boxRadii(radius, BOX_COUNT);
+        for (int box : boxes) {
+            if (box < 1) {
+                continue;
+            }
+            BoxPass pass = new BoxPass(box);
+            // 水平模糊并转置到scratch，再对scratch做水平模糊（即原图的垂直方向）并转置回pixels
+            engine.run(pixels, scratch, width, height, pass);
+            engine.run(scratch, pixels, height, width, pass);
+        }
+    }
+
+    /**
+     * Compute the radii of n box blurs whose composition approximates a gaussian of sigma.
+     * 计算n次盒式模糊的半径，使其叠加效果近似标准差为sigma的高斯模糊
+     *
+     * @param sigma the sigma
+     * @param n     盒式模糊次数
+     * @return 每次盒式模糊的半径
+     */
+    public static int[] boxRadii(double sigma, int n) {
+        // 理想的盒子宽度
+        double wIdeal = Math.sqrt((12 * sigma * sigma / n) + 1);
+        int wl = (int) Math.floor(wIdeal);
+        if (wl % 2 == 0) {
+            wl--;
+        }
+        int wu = wl + 2;
+        double mIdeal = (12 * sigma * sigma - n * wl * wl - 4 * n * wl - 3 * n) / (-4 * wl - 4);
+        long m = Math.round(mIdeal);
+        int[] radii = new int[n];
+        for (int i = 0; i < n; i++) {
+            radii[i] = ((i < m ? wl : wu) - 1) / 2;
+        }
+        return radii;
+    }
+
+    /**
+     * 一维水平盒式模糊，结果转置写入dst（dst宽度为height）
+     */
+    private static final class BoxPass implements PixelEngine.BandFilter {
+
+        private final int radius;
+
+        BoxPass(int radius) {
+            this.radius = radius;
+        }
+
+        @Override
+        public void filter(int[] src, int[] dst, int width, int height, int startRow, int endRow) {
+            final int r = radius;
+            final int size = 2 * r + 1;
+            final int last = width - 1;
+            for (int row = startRow; row < endRow; row++) {
+                int offset = row * width;
+                // 初始化窗口：[-r, r]，越界部分使用边缘像素
+                int first = src[offset];
+                int sumA = (r + 1) * (first >>> 24);
+                int sumR = (r + 1) * ((first >> 16) & 0xFF);
+                int sumG = (r + 1) * ((first >> 8) & 0xFF);
+                int sumB = (r + 1) * (first & 0xFF);
+                for (int i = 1; i <= r; i++) {
+                    int c = src[offset + Math.min(i, last)];
+                    sumA += c >>> 24;
+                    sumR += (c >> 16) & 0xFF;
+                    sumG += (c >> 8) & 0xFF;
+                    sumB += c & 0xFF;
+                }
+                int out = row;
+                for (int x = 0; x < width; x++) {
+                    dst[out] = ((sumA / size) << 24) | ((sumR / size) << 16)
+                            | ((sumG / size) << 8) | (sumB / size);
+                    out += height;
+                    // 滑动窗口：加入x + r + 1，移出x - r
+                    int in = src[offset + Math.min(x + r + 1, last)];
+                    int outC = src[offset + Math.max(x - r, 0)];
+                    sumA += (in >>> 24) - (outC >>> 24);
+                    sumR += ((in >> 16) & 0xFF) - ((outC >> 16) & 0xFF);
+                    sumG += ((in >> 8) & 0xFF) - ((outC >> 8) & 0xFF);
+                    sumB += (in & 0xFF) - (outC & 0xFF);
+                }
+            }
+        }
+    }
+}
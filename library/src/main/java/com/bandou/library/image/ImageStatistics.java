@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2016 venshine.cn@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bandou.library.image;
+
+import com.bandou.library.image.PixelEngine.BandFilter;
+
+/**
+ * 图片统计信息：各通道与亮度的直方图、均值、分位数及主色调
+ * <p>
+ * 一次遍历完成所有统计，可以每隔step个像素采样一次，大图按行切分后由{@link PixelEngine}并行统计再合并。
+ * 完全透明的像素不参与统计。亮度按 (77R + 150G + 29B) / 256 计算。
+ * 主色调把RGB各量化为4位（共4096个颜色区间），取像素最多的区间内的平均颜色。
+ *
+ * @author venshine
+ */
+public final class ImageStatistics {
+
+    public static final int CHANNEL_RED = 0;
+    public static final int CHANNEL_GREEN = 1;
+    public static final int CHANNEL_BLUE = 2;
+    public static final int CHANNEL_LUMINANCE = 3;
+
+    private static final int BINS = 256;
+    private static final int COLOR_BUCKETS = 1 << 12;
+
+    private final int[][] histograms = new int[4][BINS];
+    private final int[] bucketCounts = new int[COLOR_BUCKETS];
+    private final long[] bucketSums = new long[COLOR_BUCKETS * 3];
+    private long count;
+
+    private ImageStatistics() {
+    }
+
+    /**
+     * 统计全部像素
+     *
+     * @param pixels ARGB像素
+     * @param width  the width
+     * @param height the height
+     * @return the image statistics
+     */
+    public static ImageStatistics compute(int[] pixels, int width, int height) {
+        return compute(pixels, width, height, 1);
+    }
+
+    /**
+     * 每隔step行、step列采样统计
+     *
+     * @param pixels ARGB像素
+     * @param width  the width
+     * @param height the height
+     * @param step   采样间隔，1为统计全部像素
+     * @return the image statistics
+     */
+    public static ImageStatistics compute(int[] pixels, int width, int height, int step) {
+        final ImageStatistics result = new ImageStatistics();
+        final int s = Math.max(1, step);
+        PixelEngine.getDefault().run(pixels, pixels, width, height, new BandFilter() {
+            @Override
+            public void filter(int[] src, int[] dst, int width, int height, int startRow, int endRow) {
+                // 每个条带先统计到局部对象，最后合并，避免线程间竞争
+                ImageStatistics local = new ImageStatistics();
+                int firstRow = (startRow + s - 1) / s * s;
+                for (int row = firstRow; row < endRow; row += s) {
+                    local.accumulate(src, row * width, width, s);
+                }
+                synchronized (result) {
+                    result.merge(local);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 参与统计的像素数
+     *
+     * @return the long
+     */
+    public long getPixelCount() {
+        return count;
+    }
+
+    /**
+     * 直方图的副本
+     *
+     * @param channel CHANNEL_*
+     * @return 长度256
+     */
+    public int[] getHistogram(int channel) {
+        return histograms[channel].clone();
+    }
+
+    /**
+     * 均值
+     *
+     * @param channel CHANNEL_*
+     * @return 0~255
+     */
+    public double getMean(int channel) {
+        if (count == 0) {
+            return 0;
+        }
+        int[] histogram = histograms[channel];
+        long sum = 0;
+        for (int i = 0; i < BINS; i++) {
+            sum += (long) histogram[i] * i;
+        }
+        return (double) sum / count;
+    }
+
+    /**
+     * 分位数，即不超过该值的像素占比达到percent的最小值
+     *
+     * @param channel CHANNEL_*
+     * @param percent 0~100
+     * @return 0~255
+     */
+    public int getPercentile(int channel, double percent) {
+        if (count == 0) {
+            return 0;
+        }
+        int[] histogram = histograms[channel];
+        double target = Math.max(0, Math.min(100, percent)) / 100 * count;
+        long cumulative = 0;
+        for (int i = 0; i < BINS; i++) {
+            cumulative += histogram[i];
+            if (cumulative >= target && cumulative > 0) {
+                return i;
+            }
+        }
+        return BINS - 1;
+    }
+
+    /**
+     * 中位数
+     *
+     * @param channel CHANNEL_*
+     * @return 0~255
+     */
+    public int getMedian(int channel) {
+        return getPercentile(channel, 50);
+    }
+
+    /**
+     * 主色调，像素最多的颜色区间内的平均颜色
+     *
+     * @return 不透明ARGB颜色，没有像素时返回0
+     */
+    public int getDominantColor() {
+        int best = -1;
+        for (int i = 0; i < COLOR_BUCKETS; i++) {
+            if (bucketCounts[i] > 0 && (best < 0 || bucketCounts[i] > bucketCounts[best])) {
+                best = i;
+            }
+        }
+        if (best < 0) {
+            return 0;
+        }
+        int n = bucketCounts[best];
+        int r = (int) (bucketSums[best * 3] / n);
+        int g = (int) (bucketSums[best * 3 + 1] / n);
+        int b = (int) (bucketSums[best * 3 + 2] / n);
+        return PixelFilters.opaque(r, g, b);
+    }
+
+    /**
+     * 自动色阶：各通道分别把clipPercent与100 - clipPercent分位数之间的范围拉伸到0~255，可以校正偏色
+     *
+     * @param clipPercent 两端各裁掉的像素百分比，如0.5
+     * @return 查找表滤镜
+     */
+    public BandFilter autoLevels(double clipPercent) {
+        return LutFilters.curves(
+                stretch(getPercentile(CHANNEL_RED, clipPercent), getPercentile(CHANNEL_RED, 100 - clipPercent)),
+                stretch(getPercentile(CHANNEL_GREEN, clipPercent), getPercentile(CHANNEL_GREEN, 100 - clipPercent)),
+                stretch(getPercentile(CHANNEL_BLUE, clipPercent), getPercentile(CHANNEL_BLUE, 100 - clipPercent)));
+    }
+
+    /**
+     * 自动对比度：按亮度的分位数拉伸，三个通道使用同一条曲线，不改变色调
+     *
+     * @param clipPercent 两端各裁掉的像素百分比，如0.5
+     * @return 查找表滤镜
+     */
+    public BandFilter autoContrast(double clipPercent) {
+        return LutFilters.curves(stretch(getPercentile(CHANNEL_LUMINANCE, clipPercent),
+                getPercentile(CHANNEL_LUMINANCE, 100 - clipPercent)));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ImageStatistics[count=%d,mean=(%.1f,%.1f,%.1f),luminance=%.1f,dominant=#%06X]",
+                count, getMean(CHANNEL_RED), getMean(CHANNEL_GREEN), getMean(CHANNEL_BLUE),
+                getMean(CHANNEL_LUMINANCE), getDominantColor() & 0xFFFFFF);
+    }
+
+    /**
+     * 把[low, high]线性映射到[0, 255]的查找表，范围过窄时返回原样映射
+     */
+    private static int[] stretch(int low, int high) {
+        int[] lut = new int[BINS];
+        for (int i = 0; i < BINS; i++) {
+            lut[i] = high - low < 2 ? i : (i - low) * 255 / (high - low);
+        }
+        return lut;
+    }
+
+    private void accumulate(int[] pixels, int offset, int width, int step) {
+        final int[] red = histograms[CHANNEL_RED];
+        final int[] green = histograms[CHANNEL_GREEN];
+        final int[] blue = histograms[CHANNEL_BLUE];
+        final int[] luminance = histograms[CHANNEL_LUMINANCE];
+        for (int i = offset, end = offset + width; i < end; i += step) {
+            int c = pixels[i];
+            if ((c >>> 24) == 0) {
+                continue;
+            }
+            int r = (c >> 16) & 0xFF;
+            int g = (c >> 8) & 0xFF;
+            int b = c & 0xFF;
+            red[r]++;
+            green[g]++;
+            blue[b]++;
+            luminance[(77 * r + 150 * g + 29 * b) >> 8]++;
+            int bucket = ((r >> 4) << 8) | ((g >> 4) << 4) | (b >> 4);
+            bucketCounts[bucket]++;
+            bucketSums[bucket * 3] += r;
+            bucketSums[bucket * 3 + 1] += g;
+            bucketSums[bucket * 3 + 2] += b;
+            count++;
+        }
+    }
+
+    private void merge(ImageStatistics other) {
+        for (int c = 0; c < 4; c++) {
+            for (int i = 0; i < BINS; i++) {
+                histograms[c][i] += other.histograms[c][i];
+            }
+        }
+        for (int i = 0; i < COLOR_BUCKETS; i++) {
+            bucketCounts[i] += other.bucketCounts[i];
+        }
+        for (int i = 0; i < bucketSums.length; i++) {
+            bucketSums[i] += other.bucketSums[i];
+        }
+        count += other.count;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2016 venshine.cn@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bandou.library.image;
+
+/**
+ * 整数卷积核，每个通道的结果为 sum(weight * pixel) / divisor + bias，截断到0~255
+ * <p>
+ * 宽高必须为奇数，权重按行排列，中心点为(width / 2, height / 2)。
+ *
+ * @author venshine
+ */
+public final class Kernel {
+
+    /**
+     * 柔化，同PixelFilters.SOFTEN
+     */
+    public static final Kernel SOFTEN = new Kernel(3, 3, new int[]{
+            1, 2, 1,
+            2, 4, 2,
+            1, 2, 1}, 16, 0);
+
+    /**
+     * 锐化，PixelFilters.SHARPEN中强度0.3的拉普拉斯矩阵的整数形式
+     */
+    public static final Kernel SHARPEN = new Kernel(3, 3, new int[]{
+            -3, -3, -3,
+            -3, 27, -3,
+            -3, -3, -3}, 10, 0);
+
+    /**
+     * 浮雕，右侧像素与当前像素之差加127，同BitmapUtils.emboss
+     */
+    public static final Kernel EMBOSS = new Kernel(3, 1, new int[]{0, -1, 1}, 1, 127);
+
+    private final int width;
+    private final int height;
+    private final int[] weights;
+    private final int divisor;
+    private final int bias;
+
+    /**
+     * Instantiates a new Kernel.
+     *
+     * @param width   卷积核宽度，奇数
+     * @param height  卷积核高度，奇数
+     * @param weights 权重，按行排列，长度为width * height
+     * @param divisor 除数，不能为0
+     * @param bias    偏移量
+     */
+    public Kernel(int width, int height, int[] weights, int divisor, int bias) {
+        if (width <= 0 || height <= 0 || (width & 1) == 0 || (height & 1) == 0) {
+            throw new IllegalArgumentException("width and height must be positive odd numbers.");
+        }
+        if (weights == null || weights.length != width * height) {
+            throw new IllegalArgumentException("weights must have width * height elements.");
+        }
+        if (divisor == 0) {
+            throw new IllegalArgumentException("divisor == 0");
+        }
+        this.width = width;
+        this.height = height;
+        this.weights = weights.clone();
+        this.divisor = divisor;
+        this.bias = bias;
+    }
+
+    /**
+     * 权重之和作为除数的卷积核，结果亮度与原图一致
+     *
+     * @param width   the width
+     * @param height  the height
+     * @param weights the weights
+     * @return the kernel
+     */
+    public static Kernel normalized(int width, int height, int[] weights) {
+        int sum = 0;
+        for (int weight : weights) {
+            sum += weight;
+        }
+        return new Kernel(width, height, weights, sum == 0 ? 1 : sum, 0);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * 水平半径，即width / 2
+     *
+     * @return the int
+     */
+    public int getRadiusX() {
+        return width >> 1;
+    }
+
+    /**
+     * 垂直半径，即height / 2
+     *
+     * @return the int
+     */
+    public int getRadiusY() {
+        return height >> 1;
+    }
+
+    /**
+     * 权重的副本
+     *
+     * @return the int [ ]
+     */
+    public int[] getWeights() {
+        return weights.clone();
+    }
+
+    public int getDivisor() {
+        return divisor;
+    }
+
+    public int getBias() {
+        return bias;
+    }
+}
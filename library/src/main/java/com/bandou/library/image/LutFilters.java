@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2016 venshine.cn@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bandou.library.image;
+
+import com.bandou.library.image.PixelEngine.BandFilter;
+
+/**
+ * 查找表实现的点操作滤镜，src与dst可以为同一数组
+ * <p>
+ * 单通道曲线每个通道一张256项的表，每个像素只做3次查表；
+ * 3x3通道混合（怀旧、灰度）把每个系数乘以0~255预先算成16位定点数，每个像素只做查表与整数加法。
+ * 查找表在创建滤镜时生成一次，滤镜本身无状态，可以在多个线程和多次调用间复用。
+ *
+ * @author venshine
+ */
+public final class LutFilters {
+
+    /**
+     * 查找表长度
+     */
+    public static final int LUT_SIZE = 256;
+
+    private static final int SHIFT = 16;
+    private static final int HALF = 1 << (SHIFT - 1);
+
+    private LutFilters() {
+        throw new AssertionError();
+    }
+
+    /**
+     * 按通道曲线映射，保留alpha
+     *
+     * @param r 红色通道查找表，长度256，值超出0~255时截断
+     * @param g 绿色通道查找表
+     * @param b 蓝色通道查找表
+     * @return the band filter
+     */
+    public static BandFilter curves(int[] r, int[] g, int[] b) {
+        return new CurveFilter(checkLut(r), checkLut(g), checkLut(b));
+    }
+
+    /**
+     * 三个通道使用同一条曲线
+     *
+     * @param lut 查找表，长度256
+     * @return the band filter
+     */
+    public static BandFilter curves(int[] lut) {
+        return curves(lut, lut, lut);
+    }
+
+    /**
+     * 亮度，参数含义同BitmapUtils.lum
+     *
+     * @param lumValue 亮度值，127为原图
+     * @return the band filter
+     */
+    public static BandFilter lum(int lumValue) {
+        float scale = lumValue * 1.0F / 127;
+        int[] lut = new int[LUT_SIZE];
+        for (int i = 0; i < LUT_SIZE; i++) {
+            lut[i] = Math.round(i * scale);
+        }
+        return curves(lut);
+    }
+
+    /**
+     * 反相，同底片效果但处理全部像素且保留alpha
+     *
+     * @return the band filter
+     */
+    public static BandFilter invert() {
+        int[] lut = new int[LUT_SIZE];
+        for (int i = 0; i < LUT_SIZE; i++) {
+            lut[i] = 255 - i;
+        }
+        return curves(lut);
+    }
+
+    /**
+     * 3x3通道混合，结果截断取整，输出不透明像素
+     * <pre>
+     *   R' = m[0]*R + m[1]*G + m[2]*B
+     *   G' = m[3]*R + m[4]*G + m[5]*B
+     *   B' = m[6]*R + m[7]*G + m[8]*B
+     * </pre>
+     *
+     * @param matrix 3x3矩阵，按行排列
+     * @return the band filter
+     */
+    public static BandFilter mix(float[] matrix) {
+        if (matrix == null || matrix.length != 9) {
+            throw new IllegalArgumentException("matrix must have 9 elements.");
+        }
+        int[][] tables = new int[9][];
+        for (int i = 0; i < 9; i++) {
+            tables[i] = fixedTable(matrix[i]);
+        }
+        return new MixFilter(tables);
+    }
+
+    /**
+     * 灰度，grey = rWeight*R + gWeight*G + bWeight*B，结果截断取整，输出不透明像素
+     *
+     * @param rWeight the r weight
+     * @param gWeight the g weight
+     * @param bWeight the b weight
+     * @return the band filter
+     */
+    public static BandFilter grey(float rWeight, float gWeight, float bWeight) {
+        return new GreyFilter(fixedTable(rWeight), fixedTable(gWeight), fixedTable(bWeight));
+    }
+
+    private static int[] checkLut(int[] lut) {
+        if (lut == null || lut.length != LUT_SIZE) {
+            throw new IllegalArgumentException("lut must have " + LUT_SIZE + " elements.");
+        }
+        int[] result = new int[LUT_SIZE];
+        for (int i = 0; i < LUT_SIZE; i++) {
+            result[i] = PixelFilters.clamp(lut[i]);
+        }
+        return result;
+    }
+
+    /**
+     * coefficient * i 的16位定点数，四舍五入以抵消float系数本身的误差
+     */
+    private static int[] fixedTable(float coefficient) {
+        int[] table = new int[LUT_SIZE];
+        for (int i = 0; i < LUT_SIZE; i++) {
+            table[i] = (int) Math.round((double) coefficient * i * (1 << SHIFT));
+        }
+        return table;
+    }
+
+    private static int clampFixed(int value) {
+        // 截断取整，与原先(int)强制转换的结果一致
+        return PixelFilters.clamp(value >> SHIFT);
+    }
+
+    private static final class CurveFilter implements BandFilter {
+
+        private final int[] r;
+        private final int[] g;
+        private final int[] b;
+
+        CurveFilter(int[] r, int[] g, int[] b) {
+            // 预先移位，查表后只需按位或
+            this.r = new int[LUT_SIZE];
+            this.g = new int[LUT_SIZE];
+            this.b = b;
+            for (int i = 0; i < LUT_SIZE; i++) {
+                this.r[i] = r[i] << 16;
+                this.g[i] = g[i] << 8;
+            }
+        }
+
+        @Override
+        public void filter(int[] src, int[] dst, int width, int height, int startRow, int endRow) {
+            final int[] r = this.r, g = this.g, b = this.b;
+            for (int i = startRow * width, end = endRow * width; i < end; i++) {
+                int c = src[i];
+                dst[i] = (c & 0xFF000000) | r[(c >> 16) & 0xFF] | g[(c >> 8) & 0xFF] | b[c & 0xFF];
+            }
+        }
+    }
+
+    private static final class MixFilter implements BandFilter {
+
+        private final int[] rr, rg, rb, gr, gg, gb, br, bg, bb;
+
+        MixFilter(int[][] t) {
+            rr = t[0];
+            rg = t[1];
+            rb = t[2];
+            gr = t[3];
+            gg = t[4];
+            gb = t[5];
+            br = t[6];
+            bg = t[7];
+            bb = t[8];
+        }
+
+        @Override
+        public void filter(int[] src, int[] dst, int width, int height, int startRow, int endRow) {
+            for (int i = startRow * width, end = endRow * width; i < end; i++) {
+                int c = src[i];
+                int r = (c >> 16) & 0xFF;
+                int g = (c >> 8) & 0xFF;
+                int b = c & 0xFF;
+                dst[i] = PixelFilters.opaque(clampFixed(rr[r] + rg[g] + rb[b]),
+                        clampFixed(gr[r] + gg[g] + gb[b]),
+                        clampFixed(br[r] + bg[g] + bb[b]));
+            }
+        }
+    }
+
+    private static final class GreyFilter implements BandFilter {
+
+        private final int[] r;
+        private final int[] g;
+        private final int[] b;
+
+        GreyFilter(int[] r, int[] g, int[] b) {
+            this.r = r;
+            this.g = g;
+            this.b = b;
+        }
+
+        @Override
+        public void filter(int[] src, int[] dst, int width, int height, int startRow, int endRow) {
+            final int[] r = this.r, g = this.g, b = this.b;
+            for (int i = startRow * width, end = endRow * width; i < end; i++) {
+                int c = src[i];
+                int grey = clampFixed(r[(c >> 16) & 0xFF] + g[(c >> 8) & 0xFF] + b[c & 0xFF]);
+                dst[i] = 0xFF000000 | (grey << 16) | (grey << 8) | grey;
+            }
+        }
+    }
+}
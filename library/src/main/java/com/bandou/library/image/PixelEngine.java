@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2016 venshine.cn@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bandou.library.image;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 多线程像素处理引擎
+ * <p>
+ * 将ARGB像素数组按行切分成若干条带（band），交给固定大小的线程池并行处理，
+ * 调用线程处理最后一个条带并等待其余条带完成。
+ * 卷积类滤镜从只读的src读取上下相邻的halo行，结果写入dst，
+ * 因此每个输出像素只取决于src，与条带数量无关，多线程结果与单线程逐位一致。
+ *
+ * @author venshine
+ */
+public final class PixelEngine {
+
+    /**
+     * 每个条带至少包含的行数，避免小图切分过细
+     */
+    public static final int MIN_BAND_ROWS = 32;
+
+    private static PixelEngine sDefault;
+
+    private final int parallelism;
+    private final ExecutorService executor;
+
+    /**
+     * Band filter, process rows [startRow, endRow) of the image.
+     * 条带滤镜，处理[startRow, endRow)之间的行
+     */
+    public interface BandFilter {
+
+        /**
+         * Filter.
+         *
+         * @param src      源像素，只读
+         * @param dst      目标像素，点操作滤镜允许与src为同一数组
+         * @param width    图片宽度
+         * @param height   图片高度
+         * @param startRow 起始行（包含）
+         * @param endRow   结束行（不包含）
+         */
+        void filter(int[] src, int[] dst, int width, int height, int startRow, int endRow);
+    }
+
+    /**
+     * Instantiates a new Pixel engine.
+     *
+     * @param parallelism 并行线程数，小于等于1时所有条带在调用线程执行
+     */
+    public PixelEngine(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        if (this.parallelism > 1) {
+            executor = Executors.newFixedThreadPool(this.parallelism - 1, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger(1);
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "PixelEngine #" + count.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        } else {
+            executor = null;
+        }
+    }
+
+    /**
+     * Gets default engine, sized to the available processors.
+     * 获取默认引擎，线程数等于CPU核数
+     *
+     * @return the default
+     */
+    public static synchronized PixelEngine getDefault() {
+        if (sDefault == null) {
+            sDefault = new PixelEngine(Runtime.getRuntime().availableProcessors());
+        }
+        return sDefault;
+    }
+
+    /**
+     * Gets parallelism.
+     *
+     * @return the parallelism
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Run filter on the whole image.
+     * 按行切分并行执行滤镜，返回时所有条带均已完成
+     *
+     * @param src    源像素
+     * @param dst    目标像素
+     * @param width  the width
+     * @param height the height
+     * @param filter the filter
+     */
+    public void run(int[] src, int[] dst, int width, int height, BandFilter filter) {
+        run(src, dst, width, height, 0, height, filter);
+    }
+
+    /**
+     * Run filter on rows [startRow, endRow).
+     * 仅处理指定的行区间
+     *
+     * @param src      源像素
+     * @param dst      目标像素
+     * @param width    the width
+     * @param height   the height
+     * @param startRow 起始行（包含）
+     * @param endRow   结束行（不包含）
+     * @param filter   the filter
+     */
+    public void run(final int[] src, final int[] dst, final int width, final int height,
+                    int startRow, int endRow, final BandFilter filter) {
+        if (src == null || dst == null || filter == null) {
+            throw new IllegalArgumentException("src, dst and filter cannot be null.");
+        }
+        if (src.length < width * height || dst.length < width * height) {
+            throw new IllegalArgumentException("Pixel buffer is smaller than width * height.");
+        }
+        int rows = endRow - startRow;
+        if (rows <= 0) {
+            return;
+        }
+        int bands = Math.min(parallelism, (rows + MIN_BAND_ROWS - 1) / MIN_BAND_ROWS);
+        if (bands <= 1) {
+            filter.filter(src, dst, width, height, startRow, endRow);
+            return;
+        }
+        int rowsPerBand = (rows + bands - 1) / bands;
+        List<Future<?>> futures = new ArrayList<Future<?>>(bands - 1);
+        int start = startRow;
+        for (int i = 0; i < bands - 1; i++) {
+            final int bandStart = start;
+            final int bandEnd = Math.min(endRow, start + rowsPerBand);
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    filter.filter(src, dst, width, height, bandStart, bandEnd);
+                }
+            }));
+            start = bandEnd;
+        }
+        // 最后一个条带在调用线程执行
+        filter.filter(src, dst, width, height, start, endRow);
+        await(futures);
+    }
+
+    /**
+     * Shutdown the worker threads, the default engine cannot be shutdown.
+     * 关闭工作线程
+     */
+    public void shutdown() {
+        if (executor != null && this != sDefault) {
+            executor.shutdown();
+        }
+    }
+
+    private static void await(List<Future<?>> futures) {
+        boolean interrupted = false;
+        try {
+            for (Future<?> future : futures) {
+                while (true) {
+                    try {
+                        future.get();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof RuntimeException) {
+                            throw (RuntimeException) cause;
+                        }
+                        if (cause instanceof Error) {
+                            throw (Error) cause;
+                        }
+                        throw new RuntimeException("PixelEngine band failed.", cause);
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2016 venshine.cn@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bandou.library.image;
+
+import com.bandou.library.image.PixelEngine.BandFilter;
+
+/**
+ * 基于int[] ARGB像素的图片效果，不依赖android.graphics
+ * <p>
+ * 卷积类滤镜（柔化、锐化、浮雕）要求src与dst为不同数组，边缘一圈像素原样拷贝；
+ * 点操作滤镜（灰度、怀旧、光照、底片）允许src与dst为同一数组，灰度与怀旧基于{@link LutFilters}查找表。
+ * {@link #SOFTEN_IN_PLACE}与{@link #SHARPEN_IN_PLACE}保留旧版原地递推的结果，只能单条带执行。
+ *
+ * @author venshine
+ */
+public final class PixelFilters {
+
+    private PixelFilters() {
+        throw new AssertionError();
+    }
+
+    /**
+     * 柔化效果，3x3高斯矩阵{1, 2, 1, 2, 4, 2, 1, 2, 1}
+     */
+    public static final BandFilter SOFTEN = new BandFilter() {
+        @Override
+        public void filter(int[] src, int[] dst, int width, int height, int startRow, int endRow) {
+            final int delta = 16; // 值越小图片会越亮，越大则越暗
+            for (int i = startRow; i < endRow; i++) {
+                if (copyBorderRow(src, dst, width, height, i)) {
+                    continue;
+                }
+                int up = (i - 1) * width;
+                int row = i * width;
+                int down = (i + 1) * width;
+                for (int k = 1, len = width - 1; k < len; k++) {
+                    int c0 = src[up + k - 1], c1 = src[up + k], c2 = src[up + k + 1];
+                    int c3 = src[row + k - 1], c4 = src[row + k], c5 = src[row + k + 1];
+                    int c6 = src[down + k - 1], c7 = src[down + k], c8 = src[down + k + 1];
+                    int newR = red(c0) + 2 * red(c1) + red(c2)
+                            + 2 * red(c3) + 4 * red(c4) + 2 * red(c5)
+                            + red(c6) + 2 * red(c7) + red(c8);
+                    int newG = green(c0) + 2 * green(c1) + green(c2)
+                            + 2 * green(c3) + 4 * green(c4) + 2 * green(c5)
+                            + green(c6) + 2 * green(c7) + green(c8);
+                    int newB = blue(c0) + 2 * blue(c1) + blue(c2)
+                            + 2 * blue(c3) + 4 * blue(c4) + 2 * blue(c5)
+                            + blue(c6) + 2 * blue(c7) + blue(c8);
+                    dst[row + k] = opaque(clamp(newR / delta), clamp(newG / delta), clamp(newB / delta));
+                }
+            }
+        }
+    };
+
+    /**
+     * 锐化效果，3x3拉普拉斯矩阵{-1, -1, -1, -1, 9, -1, -1, -1, -1}，强度0.3
+     */
+    public static final BandFilter SHARPEN = new BandFilter() {
+        @Override
+        public void filter(int[] src, int[] dst, int width, int height, int startRow, int endRow) {
+            final int[] laplacian = new int[]{-1, -1, -1, -1, 9, -1, -1, -1, -1};
+            final float alpha = 0.3F;
+            for (int i = startRow; i < endRow; i++) {
+                if (copyBorderRow(src, dst, width, height, i)) {
+                    continue;
+                }
+                for (int k = 1, len = width - 1; k < len; k++) {
+                    int newR = 0;
+                    int newG = 0;
+                    int newB = 0;
+                    int idx = 0;
+                    for (int m = -1; m <= 1; m++) {
+                        for (int n = -1; n <= 1; n++) {
+                            int pixColor = src[(i + n) * width + k + m];
+                            newR = newR + (int) (red(pixColor) * laplacian[idx] * alpha);
+                            newG = newG + (int) (green(pixColor) * laplacian[idx] * alpha);
+                            newB = newB + (int) (blue(pixColor) * laplacian[idx] * alpha);
+                            idx++;
+                        }
+                    }
+                    dst[i * width + k] = opaque(clamp(newR), clamp(newG), clamp(newB));
+                }
+            }
+        }
+    };
+
+    /**
+     * 旧版柔化效果，在同一数组上原地计算，上方与左侧的邻居已是柔化后的值，结果与{@link #SOFTEN}不同。
+     * 行与行之间有依赖，src与dst必须为同一数组，并且只能作为单个条带执行
+     */
+    public static final BandFilter SOFTEN_IN_PLACE = new BandFilter() {
+        @Override
+        public void filter(int[] src, int[] dst, int width, int height, int startRow, int endRow) {
+            final int delta = 16;
+            int[] pixels = prepareInPlace(src, dst);
+            for (int i = Math.max(1, startRow), length = Math.min(endRow, height - 1); i < length; i++) {
+                int up = (i - 1) * width;
+                int row = i * width;
+                int down = (i + 1) * width;
+                for (int k = 1, len = width - 1; k < len; k++) {
+                    int c0 = pixels[up + k - 1], c1 = pixels[up + k], c2 = pixels[up + k + 1];
+                    int c3 = pixels[row + k - 1], c4 = pixels[row + k], c5 = pixels[row + k + 1];
+                    int c6 = pixels[down + k - 1], c7 = pixels[down + k], c8 = pixels[down + k + 1];
+                    int newR = red(c0) + 2 * red(c1) + red(c2)
+                            + 2 * red(c3) + 4 * red(c4) + 2 * red(c5)
+                            + red(c6) + 2 * red(c7) + red(c8);
+                    int newG = green(c0) + 2 * green(c1) + green(c2)
+                            + 2 * green(c3) + 4 * green(c4) + 2 * green(c5)
+                            + green(c6) + 2 * green(c7) + green(c8);
+                    int newB = blue(c0) + 2 * blue(c1) + blue(c2)
+                            + 2 * blue(c3) + 4 * blue(c4) + 2 * blue(c5)
+                            + blue(c6) + 2 * blue(c7) + blue(c8);
+                    pixels[row + k] = opaque(clamp(newR / delta), clamp(newG / delta), clamp(newB / delta));
+                }
+            }
+        }
+    };
+
+    /**
+     * 旧版锐化效果，在同一数组上原地计算，结果与{@link #SHARPEN}不同。
+     * 行与行之间有依赖，src与dst必须为同一数组，并且只能作为单个条带执行
+     */
+    public static final BandFilter SHARPEN_IN_PLACE = new BandFilter() {
+        @Override
+        public void filter(int[] src, int[] dst, int width, int height, int startRow, int endRow) {
+            final int[] laplacian = new int[]{-1, -1, -1, -1, 9, -1, -1, -1, -1};
+            final float alpha = 0.3F;
+            int[] pixels = prepareInPlace(src, dst);
+            for (int i = Math.max(1, startRow), length = Math.min(endRow, height - 1); i < length; i++) {
+                for (int k = 1, len = width - 1; k < len; k++) {
+                    int newR = 0;
+                    int newG = 0;
+                    int newB = 0;
+                    int idx = 0;
+                    for (int m = -1; m <= 1; m++) {
+                        for (int n = -1; n <= 1; n++) {
+                            int pixColor = pixels[(i + n) * width + k + m];
+                            newR = newR + (int) (red(pixColor) * laplacian[idx] * alpha);
+                            newG = newG + (int) (green(pixColor) * laplacian[idx] * alpha);
+                            newB = newB + (int) (blue(pixColor) * laplacian[idx] * alpha);
+                            idx++;
+                        }
+                    }
+                    pixels[i * width + k] = opaque(clamp(newR), clamp(newG), clamp(newB));
+                }
+            }
+        }
+    };
+
+    /**
+     * 浮雕效果，当前像素与右侧像素之差加127
+     */
+    public static final BandFilter EMBOSS = new BandFilter() {
+        @Override
+        public void filter(int[] src, int[] dst, int width, int height, int startRow, int endRow) {
+            for (int i = startRow; i < endRow; i++) {
+                if (copyBorderRow(src, dst, width, height, i)) {
+                    continue;
+                }
+                for (int k = 1, len = width - 1; k < len; k++) {
+                    int pos = i * width + k;
+                    int pixColor = src[pos];
+                    int next = src[pos + 1];
+                    dst[pos] = opaque(clamp(red(next) - red(pixColor) + 127),
+                            clamp(green(next) - green(pixColor) + 127),
+                            clamp(blue(next) - blue(pixColor) + 127));
+                }
+            }
+        }
+    };
+
+    /**
+     * 底片效果，边缘一圈像素不处理，RGB三个通道按位取反即255 - c
+     */
+    public static final BandFilter FILM = new BandFilter() {
+        @Override
+        public void filter(int[] src, int[] dst, int width, int height, int startRow, int endRow) {
+            for (int i = startRow; i < endRow; i++) {
+                if (copyBorderRow(src, dst, width, height, i)) {
+                    continue;
+                }
+                for (int pos = i * width + 1, end = (i + 1) * width - 1; pos < end; pos++) {
+                    dst[pos] = 0xFF000000 | ~src[pos];
+                }
+            }
+        }
+    };
+
+    /**
+     * 怀旧效果，查找表实现
+     */
+    public static final BandFilter NOSTALGIC = LutFilters.mix(new float[]{
+            0.393F, 0.769F, 0.189F,
+            0.349F, 0.686F, 0.168F,
+            0.272F, 0.534F, 0.131F});
+
+    /**
+     * 灰度效果，gray = 0.3R + 0.59G + 0.11B，查找表实现
+     */
+    public static final BandFilter GREY = LutFilters.grey(0.3F, 0.59F, 0.11F);
+
+    /**
+     * 光照效果，光照半径为min(centerX, centerY)，强度150，基于{@link RadialFilters}缓存的衰减表
+     *
+     * @param centerX 光源在X轴的位置
+     * @param centerY 光源在Y轴的位置
+     * @return the band filter
+     */
+    public static BandFilter sunshine(final int centerX, final int centerY) {
+        final int strength = 150; // 光照强度 100~150
+        return RadialFilters.sunshine(centerX, centerY, Math.min(centerX, centerY), strength);
+    }
+
+    /**
+     * 首尾两行整行拷贝，其余行拷贝首尾两列
+     *
+     * @return 该行是否为边缘行
+     */
+    /**
+     * 原地滤镜在dst上计算，src与dst不同时先拷贝
+     */
+    private static int[] prepareInPlace(int[] src, int[] dst) {
+        if (src != dst) {
+            System.arraycopy(src, 0, dst, 0, Math.min(src.length, dst.length));
+        }
+        return dst;
+    }
+
+    static boolean copyBorderRow(int[] src, int[] dst, int width, int height, int row) {
+        int offset = row * width;
+        if (row == 0 || row >= height - 1 || width < 3) {
+            if (src != dst) {
+                System.arraycopy(src, offset, dst, offset, width);
+            }
+            return true;
+        }
+        dst[offset] = src[offset];
+        dst[offset + width - 1] = src[offset + width - 1];
+        return false;
+    }
+
+    static int red(int color) {
+        return (color >> 16) & 0xFF;
+    }
+
+    static int green(int color) {
+        return (color >> 8) & 0xFF;
+    }
+
+    static int blue(int color) {
+        return color & 0xFF;
+    }
+
+    static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+
+    static int opaque(int red, int green, int blue) {
+        return 0xFF000000 | (red << 16) | (green << 8) | blue;
+    }
+}
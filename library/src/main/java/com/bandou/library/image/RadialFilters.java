@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2016 venshine.cn@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bandou.library.image;
+
+import com.bandou.library.image.PixelEngine.BandFilter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 径向光照与暗角滤镜，src与dst可以为同一数组
+ * <p>
+ * 衰减值预先计算成以距离平方为下标的查找表（下标右移使表长不超过64K），
+ * 查找表只与半径、强度有关，与中心位置无关，并缓存最近使用的几张，
+ * 拖动光源中心反复预览时每个像素只需一次整数乘加与一次查表，不再调用Math.pow、Math.sqrt。
+ * 距离平方用dx * dx + dy * dy整数计算，只在|dx|、|dy|不超过半径时计算，不会溢出。
+ *
+ * @author venshine
+ */
+public final class RadialFilters {
+
+    /**
+     * 支持的最大半径，保证2 * radius * radius不超过int范围
+     */
+    public static final int MAX_RADIUS = 32767;
+
+    private static final int MAX_TABLE_SIZE = 1 << 16;
+    private static final int MAX_CACHED_TABLES = 4;
+    private static final int TYPE_LIGHT = 0;
+    private static final int TYPE_VIGNETTE = 1;
+
+    private static final Map<String, Falloff> sCache = new LinkedHashMap<String, Falloff>(0, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Falloff> eldest) {
+            return size() > MAX_CACHED_TABLES;
+        }
+    };
+
+    private RadialFilters() {
+        throw new AssertionError();
+    }
+
+    /**
+     * 光照，半径内亮度增加strength * (1 - d / radius)，输出不透明像素
+     *
+     * @param centerX  光源在X轴的位置
+     * @param centerY  光源在Y轴的位置
+     * @param radius   光照半径
+     * @param strength 光照强度，如100~150
+     * @return the band filter
+     */
+    public static BandFilter light(int centerX, int centerY, int radius, int strength) {
+        return new LightFilter(centerX, centerY, falloff(TYPE_LIGHT, radius, strength), false);
+    }
+
+    /**
+     * 暗角，亮度乘以1 - strength * (d / radius)^2，半径外按半径处计算，保留alpha
+     *
+     * @param centerX  中心在X轴的位置
+     * @param centerY  中心在Y轴的位置
+     * @param radius   半径
+     * @param strength 0~1，边缘变暗的程度
+     * @return the band filter
+     */
+    public static BandFilter vignette(int centerX, int centerY, int radius, float strength) {
+        return new VignetteFilter(centerX, centerY, falloff(TYPE_VIGNETTE, radius, strength));
+    }
+
+    /**
+     * 光照效果，边缘一圈像素不处理，同PixelFilters.sunshine
+     */
+    static BandFilter sunshine(int centerX, int centerY, int radius, int strength) {
+        return new LightFilter(centerX, centerY, falloff(TYPE_LIGHT, radius, strength), true);
+    }
+
+    /**
+     * 获取缓存的衰减表，不存在时生成
+     */
+    private static Falloff falloff(int type, int radius, float strength) {
+        radius = Math.max(0, Math.min(MAX_RADIUS, radius));
+        String key = type + ":" + radius + ":" + strength;
+        synchronized (sCache) {
+            Falloff falloff = sCache.get(key);
+            if (falloff == null) {
+                falloff = new Falloff(type, radius, strength);
+                sCache.put(key, falloff);
+            }
+            return falloff;
+        }
+    }
+
+    /**
+     * 以距离平方右移shift位为下标的衰减表
+     */
+    private static final class Falloff {
+
+        final int radius;
+        final int shift;
+        final int[] table;
+        final int outside;
+
+        Falloff(int type, int radius, float strength) {
+            this.radius = radius;
+            long maxSquared = (long) radius * radius;
+            int s = 0;
+            while ((maxSquared >> s) >= MAX_TABLE_SIZE) {
+                s++;
+            }
+            this.shift = s;
+            this.table = new int[(int) (maxSquared >> s) + 1];
+            for (int i = 0; i < table.length; i++) {
+                double distance = radius == 0 ? 1 : Math.sqrt((double) ((long) i << s)) / radius;
+                table[i] = value(type, distance, strength);
+            }
+            this.outside = value(type, 1, strength);
+        }
+
+        private static int value(int type, double distance, float strength) {
+            if (type == TYPE_LIGHT) {
+                return distance >= 1 ? 0 : (int) (strength * (1.0 - distance));
+            }
+            // 暗角为8位定点数的亮度系数，256为原图
+            double d = Math.min(1, distance);
+            double factor = Math.max(0, Math.min(1, 1 - strength * d * d));
+            return (int) Math.round(factor * 256);
+        }
+
+        /**
+         * 查找(dx, dy)处的衰减值，dy2为dy * dy
+         */
+        int get(int dx, int dy2) {
+            if (dx > radius || dx < -radius) {
+                return outside;
+            }
+            int index = (dx * dx + dy2) >> shift;
+            return index < table.length ? table[index] : outside;
+        }
+    }
+
+    private static final class LightFilter implements BandFilter {
+
+        private final int centerX;
+        private final int centerY;
+        private final Falloff falloff;
+        private final boolean skipBorder;
+
+        LightFilter(int centerX, int centerY, Falloff falloff, boolean skipBorder) {
+            this.centerX = centerX;
+            this.centerY = centerY;
+            this.falloff = falloff;
+            this.skipBorder = skipBorder;
+        }
+
+        @Override
+        public void filter(int[] src, int[] dst, int width, int height, int startRow, int endRow) {
+            final Falloff falloff = this.falloff;
+            final int radius = falloff.radius;
+            for (int i = startRow; i < endRow; i++) {
+                int first = 0;
+                int last = width;
+                if (skipBorder) {
+                    if (PixelFilters.copyBorderRow(src, dst, width, height, i)) {
+                        continue;
+                    }
+                    first = 1;
+                    last = width - 1;
+                }
+                int row = i * width;
+                int dy = i - centerY;
+                // 光照范围内的列，范围外只需设为不透明
+                int lightStart = first;
+                int lightEnd = first;
+                if (dy <= radius && dy >= -radius) {
+                    lightStart = Math.max(first, Math.min(last, centerX - radius));
+                    lightEnd = Math.max(lightStart, Math.min(last, centerX + radius + 1));
+                }
+                for (int k = first; k < lightStart; k++) {
+                    dst[row + k] = src[row + k] | 0xFF000000;
+                }
+                int dy2 = dy * dy;
+                for (int k = lightStart; k < lightEnd; k++) {
+                    int c = src[row + k];
+                    int light = falloff.get(k - centerX, dy2);
+                    dst[row + k] = PixelFilters.opaque(PixelFilters.clamp(((c >> 16) & 0xFF) + light),
+                            PixelFilters.clamp(((c >> 8) & 0xFF) + light), PixelFilters.clamp((c & 0xFF) + light));
+                }
+                for (int k = lightEnd; k < last; k++) {
+                    dst[row + k] = src[row + k] | 0xFF000000;
+                }
+            }
+        }
+    }
+
+    private static final class VignetteFilter implements BandFilter {
+
+        private final int centerX;
+        private final int centerY;
+        private final Falloff falloff;
+
+        VignetteFilter(int centerX, int centerY, Falloff falloff) {
+            this.centerX = centerX;
+            this.centerY = centerY;
+            this.falloff = falloff;
+        }
+
+        @Override
+        public void filter(int[] src, int[] dst, int width, int height, int startRow, int endRow) {
+            final Falloff falloff = this.falloff;
+            final int radius = falloff.radius;
+            for (int i = startRow; i < endRow; i++) {
+                int row = i * width;
+                int dy = i - centerY;
+                boolean inside = dy <= radius && dy >= -radius;
+                int dy2 = inside ? dy * dy : 0;
+                for (int k = 0; k < width; k++) {
+                    int c = src[row + k];
+                    int factor = inside ? falloff.get(k - centerX, dy2) : falloff.outside;
+                    dst[row + k] = (c & 0xFF000000) | ((((c >> 16) & 0xFF) * factor >> 8) << 16)
+                            | ((((c >> 8) & 0xFF) * factor >> 8) << 8) | ((c & 0xFF) * factor >> 8);
+                }
+            }
+        }
+    }
+}
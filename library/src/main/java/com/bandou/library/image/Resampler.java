@@ -0,0 +1,474 @@
+/*
+ * Copyright (C) 2016 venshine.cn@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bandou.library.image;
+
+import com.bandou.library.image.PixelEngine.BandFilter;
+
+import java.util.Arrays;
+
+/**
+ * 图片缩放重采样
+ * <p>
+ * 可分离的两次一维卷积：先水平方向缩放每一行，再垂直方向缩放，两次都按输出行交给{@link PixelEngine}并行。
+ * 每个方向的采样起点与权重只与尺寸有关，预先计算成14位定点数的权重表，权重和恰好为1，纯色图片缩放后颜色不变。
+ * 缩小时卷积核按缩小倍数放大，每个输出像素覆盖对应的全部源像素，不会像只取相邻2x2像素的Matrix缩放那样产生锯齿。
+ * 缩小超过4倍时先做若干次2x2平均的减半，剩余倍数小于4后再卷积，限制每个像素的采样数。
+ * 有透明度时按预乘alpha计算，避免透明像素的颜色渗到边缘。
+ *
+ * @author venshine
+ */
+public final class Resampler {
+
+    /**
+     * 最近邻，速度最快，不做任何平滑
+     */
+    public static final int NEAREST = 0;
+    /**
+     * 双线性（三角形核）
+     */
+    public static final int BILINEAR = 1;
+    /**
+     * 区域平均，缩小时每个源像素按覆盖面积加权
+     */
+    public static final int AREA = 2;
+    /**
+     * Lanczos-3，最清晰，计算量最大
+     */
+    public static final int LANCZOS3 = 3;
+
+    private static final int PRECISION_BITS = 14;
+    private static final int ONE = 1 << PRECISION_BITS;
+    private static final int HALF = 1 << (PRECISION_BITS - 1);
+    /**
+     * 剩余缩小倍数不小于该值时继续减半
+     */
+    private static final int HALVING_RATIO = 4;
+
+    private Resampler() {
+        throw new AssertionError();
+    }
+
+    /**
+     * 使用默认引擎缩放
+     *
+     * @param src       源ARGB像素
+     * @param srcWidth  源宽度
+     * @param srcHeight 源高度
+     * @param dst       目标像素，长度不小于dstWidth * dstHeight
+     * @param dstWidth  目标宽度
+     * @param dstHeight 目标高度
+     * @param filter    NEAREST、BILINEAR、AREA或LANCZOS3
+     * @param hasAlpha  是否有透明像素，false时省去预乘alpha的计算
+     */
+    public static void resize(int[] src, int srcWidth, int srcHeight, int[] dst, int dstWidth, int dstHeight,
+                              int filter, boolean hasAlpha) {
+        resize(src, srcWidth, srcHeight, dst, dstWidth, dstHeight, filter, hasAlpha, PixelEngine.getDefault());
+    }
+
+    /**
+     * 缩放
+     *
+     * @param src       源ARGB像素
+     * @param srcWidth  源宽度
+     * @param srcHeight 源高度
+     * @param dst       目标像素，长度不小于dstWidth * dstHeight
+     * @param dstWidth  目标宽度
+     * @param dstHeight 目标高度
+     * @param filter    NEAREST、BILINEAR、AREA或LANCZOS3
+     * @param hasAlpha  是否有透明像素，false时省去预乘alpha的计算
+     * @param engine    并行执行的引擎
+     */
+    public static void resize(int[] src, int srcWidth, int srcHeight, int[] dst, int dstWidth, int dstHeight,
+                              int filter, boolean hasAlpha, PixelEngine engine) {
+        if (srcWidth <= 0 || srcHeight <= 0 || dstWidth <= 0 || dstHeight <= 0) {
+            throw new IllegalArgumentException("Width and height must be > 0.");
+        }
+        if (src.length < srcWidth * srcHeight || dst.length < dstWidth * dstHeight) {
+            throw new IllegalArgumentException("Pixel buffer is smaller than width * height.");
+        }
+        if (filter < NEAREST || filter > LANCZOS3) {
+            throw new IllegalArgumentException("Unknown filter: " + filter);
+        }
+        if (filter == NEAREST) {
+            engine.run(dst, dst, dstWidth, dstHeight, new NearestPass(src, srcWidth, srcHeight));
+            return;
+        }
+        boolean premultiply = hasAlpha;
+        int width = srcWidth;
+        int height = srcHeight;
+        while (width >= dstWidth * HALVING_RATIO || height >= dstHeight * HALVING_RATIO) {
+            boolean halveX = width >= dstWidth * HALVING_RATIO;
+            boolean halveY = height >= dstHeight * HALVING_RATIO;
+            int halfWidth = halveX ? width / 2 : width;
+            int halfHeight = halveY ? height / 2 : height;
+            int[] half = new int[halfWidth * halfHeight];
+            engine.run(half, half, halfWidth, halfHeight,
+                    new HalvePass(src, width, halveX, halveY, premultiply));
+            src = half;
+            width = halfWidth;
+            height = halfHeight;
+            // 减半结果已经是预乘的
+            premultiply = false;
+        }
+        // 水平方向：height行，每行由width缩放为dstWidth
+        int[] horizontal = new int[dstWidth * height];
+        engine.run(horizontal, horizontal, dstWidth, height,
+                new HorizontalPass(src, width, new Weights(filter, width, dstWidth), premultiply));
+        engine.run(dst, dst, dstWidth, dstHeight,
+                new VerticalPass(horizontal, height, new Weights(filter, height, dstHeight), hasAlpha));
+    }
+
+    /**
+     * 卷积核的值
+     */
+    private static double kernel(int filter, double x) {
+        x = Math.abs(x);
+        switch (filter) {
+            case BILINEAR:
+                return x < 1 ? 1 - x : 0;
+            case LANCZOS3:
+                if (x < 1e-8) {
+                    return 1;
+                }
+                if (x >= 3) {
+                    return 0;
+                }
+                double px = Math.PI * x;
+                return 3 * Math.sin(px) * Math.sin(px / 3) / (px * px);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 卷积核的半径，单位为源像素（放大时）
+     */
+    private static double support(int filter) {
+        return filter == LANCZOS3 ? 3 : 1;
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : value > 255 ? 255 : value;
+    }
+
+    /**
+     * 预乘alpha
+     */
+    private static int premultiply(int c) {
+        int a = c >>> 24;
+        if (a == 255) {
+            return c;
+        }
+        if (a == 0) {
+            return 0;
+        }
+        int r = ((c >> 16) & 0xFF) * a + 128;
+        int g = ((c >> 8) & 0xFF) * a + 128;
+        int b = (c & 0xFF) * a + 128;
+        // 四舍五入的x / 255，即(x + 128 + ((x + 128) >> 8)) >> 8，对所有8位乘积精确
+        return (c & 0xFF000000) | (((r + (r >> 8)) >> 8) << 16) | (((g + (g >> 8)) >> 8) << 8)
+                | ((b + (b >> 8)) >> 8);
+    }
+
+    /**
+     * 一个方向的权重表，第i个输出像素 = sum(src[start[i] + k] * weights[i * taps + k])
+     */
+    private static final class Weights {
+
+        final int taps;
+        final int[] start;
+        final int[] weights;
+
+        Weights(int filter, int in, int out) {
+            double scale = (double) in / out;
+            double[] values;
+            int[] first = new int[out];
+            int maxTaps = 0;
+            double[][] rows = new double[out][];
+            if (filter == AREA) {
+                // 输出像素i覆盖源区间[i * scale, (i + 1) * scale)，权重为每个源像素被覆盖的长度
+                for (int i = 0; i < out; i++) {
+                    double left = i * scale;
+                    double right = Math.min(in, (i + 1) * scale);
+                    int j0 = Math.min(in - 1, (int) left);
+                    int j1 = Math.max(j0 + 1, Math.min(in, (int) Math.ceil(right)));
+                    values = new double[j1 - j0];
+                    for (int j = j0; j < j1; j++) {
+                        values[j - j0] = Math.max(0, Math.min(j + 1, right) - Math.max(j, left));
+                    }
+                    first[i] = j0;
+                    rows[i] = values;
+                    maxTaps = Math.max(maxTaps, values.length);
+                }
+            } else {
+                double filterScale = Math.max(1, scale);
+                double support = support(filter) * filterScale;
+                for (int i = 0; i < out; i++) {
+                    double center = (i + 0.5) * scale;
+                    int j0 = Math.max(0, (int) Math.floor(center - support));
+                    int j1 = Math.min(in, (int) Math.ceil(center + support));
+                    if (j1 <= j0) {
+                        j0 = Math.min(in - 1, (int) center);
+                        j1 = j0 + 1;
+                    }
+                    values = new double[j1 - j0];
+                    for (int j = j0; j < j1; j++) {
+                        values[j - j0] = kernel(filter, (j + 0.5 - center) / filterScale);
+                    }
+                    first[i] = j0;
+                    rows[i] = values;
+                    maxTaps = Math.max(maxTaps, values.length);
+                }
+            }
+            this.taps = maxTaps;
+            this.start = first;
+            this.weights = new int[out * maxTaps];
+            for (int i = 0; i < out; i++) {
+                normalize(rows[i], weights, i * maxTaps);
+            }
+        }
+
+        /**
+         * 归一化并转换为定点数，舍入误差加到最大的权重上，使权重和恰好为ONE
+         */
+        private static void normalize(double[] values, int[] dst, int offset) {
+            double sum = 0;
+            for (double v : values) {
+                sum += v;
+            }
+            if (sum == 0) {
+                values[0] = sum = 1;
+            }
+            int total = 0;
+            int largest = 0;
+            for (int k = 0; k < values.length; k++) {
+                int w = (int) Math.round(values[k] / sum * ONE);
+                dst[offset + k] = w;
+                total += w;
+                if (w > dst[offset + largest]) {
+                    largest = k;
+                }
+            }
+            dst[offset + largest] += ONE - total;
+        }
+    }
+
+    /**
+     * 最近邻，按输出行处理
+     */
+    private static final class NearestPass implements BandFilter {
+
+        private final int[] src;
+        private final int srcWidth;
+        private final int srcHeight;
+
+        NearestPass(int[] src, int srcWidth, int srcHeight) {
+            this.src = src;
+            this.srcWidth = srcWidth;
+            this.srcHeight = srcHeight;
+        }
+
+        @Override
+        public void filter(int[] unused, int[] dst, int width, int height, int startRow, int endRow) {
+            int[] columns = new int[width];
+            for (int x = 0; x < width; x++) {
+                columns[x] = (int) ((x + 0.5) * srcWidth / width);
+            }
+            for (int y = startRow; y < endRow; y++) {
+                int srcRow = (int) ((y + 0.5) * srcHeight / height) * srcWidth;
+                int row = y * width;
+                for (int x = 0; x < width; x++) {
+                    dst[row + x] = src[srcRow + columns[x]];
+                }
+            }
+        }
+    }
+
+    /**
+     * 2x2（或2x1、1x2）平均减半，结果为预乘alpha
+     */
+    private static final class HalvePass implements BandFilter {
+
+        private final int[] src;
+        private final int srcWidth;
+        private final boolean halveX;
+        private final boolean halveY;
+        private final boolean premultiply;
+
+        HalvePass(int[] src, int srcWidth, boolean halveX, boolean halveY, boolean premultiply) {
+            this.src = src;
+            this.srcWidth = srcWidth;
+            this.halveX = halveX;
+            this.halveY = halveY;
+            this.premultiply = premultiply;
+        }
+
+        @Override
+        public void filter(int[] unused, int[] dst, int width, int height, int startRow, int endRow) {
+            final int dx = halveX ? 1 : 0;
+            final int dy = halveY ? srcWidth : 0;
+            for (int y = startRow; y < endRow; y++) {
+                int srcRow = (halveY ? y * 2 : y) * srcWidth;
+                int row = y * width;
+                for (int x = 0; x < width; x++) {
+                    int i = srcRow + (halveX ? x * 2 : x);
+                    int c0 = src[i];
+                    int c1 = src[i + dx];
+                    int c2 = src[i + dy];
+                    int c3 = src[i + dx + dy];
+                    if (premultiply) {
+                        c0 = premultiply(c0);
+                        c1 = premultiply(c1);
+                        c2 = premultiply(c2);
+                        c3 = premultiply(c3);
+                    }
+                    // 只减半一个方向时另一方向取同一像素两次，除以4仍是平均值
+                    int a = (c0 >>> 24) + (c1 >>> 24) + (c2 >>> 24) + (c3 >>> 24) + 2;
+                    int r = ((c0 >> 16) & 0xFF) + ((c1 >> 16) & 0xFF) + ((c2 >> 16) & 0xFF) + ((c3 >> 16) & 0xFF) + 2;
+                    int g = ((c0 >> 8) & 0xFF) + ((c1 >> 8) & 0xFF) + ((c2 >> 8) & 0xFF) + ((c3 >> 8) & 0xFF) + 2;
+                    int b = (c0 & 0xFF) + (c1 & 0xFF) + (c2 & 0xFF) + (c3 & 0xFF) + 2;
+                    dst[row + x] = ((a >> 2) << 24) | ((r >> 2) << 16) | ((g >> 2) << 8) | (b >> 2);
+                }
+            }
+        }
+    }
+
+    /**
+     * 水平方向卷积，按行处理
+     */
+    private static final class HorizontalPass implements BandFilter {
+
+        private final int[] src;
+        private final int srcWidth;
+        private final Weights weights;
+        private final boolean premultiply;
+
+        HorizontalPass(int[] src, int srcWidth, Weights weights, boolean premultiply) {
+            this.src = src;
+            this.srcWidth = srcWidth;
+            this.weights = weights;
+            this.premultiply = premultiply;
+        }
+
+        @Override
+        public void filter(int[] unused, int[] dst, int width, int height, int startRow, int endRow) {
+            final int[] src = this.src;
+            final int[] start = weights.start;
+            final int[] table = weights.weights;
+            final int taps = weights.taps;
+            for (int y = startRow; y < endRow; y++) {
+                int srcRow = y * srcWidth;
+                int row = y * width;
+                for (int x = 0; x < width; x++) {
+                    int first = start[x];
+                    int n = Math.min(taps, srcWidth - first);
+                    int w0 = x * taps;
+                    int a = HALF;
+                    int r = HALF;
+                    int g = HALF;
+                    int b = HALF;
+                    for (int k = 0; k < n; k++) {
+                        int w = table[w0 + k];
+                        if (w == 0) {
+                            continue;
+                        }
+                        int c = src[srcRow + first + k];
+                        if (premultiply) {
+                            c = premultiply(c);
+                        }
+                        a += (c >>> 24) * w;
+                        r += ((c >> 16) & 0xFF) * w;
+                        g += ((c >> 8) & 0xFF) * w;
+                        b += (c & 0xFF) * w;
+                    }
+                    dst[row + x] = (clamp(a >> PRECISION_BITS) << 24) | (clamp(r >> PRECISION_BITS) << 16)
+                            | (clamp(g >> PRECISION_BITS) << 8) | clamp(b >> PRECISION_BITS);
+                }
+            }
+        }
+    }
+
+    /**
+     * 垂直方向卷积，按输出行处理，整行累加以顺序访问内存
+     */
+    private static final class VerticalPass implements BandFilter {
+
+        private final int[] src;
+        private final int srcHeight;
+        private final Weights weights;
+        private final boolean unpremultiply;
+
+        VerticalPass(int[] src, int srcHeight, Weights weights, boolean unpremultiply) {
+            this.src = src;
+            this.srcHeight = srcHeight;
+            this.weights = weights;
+            this.unpremultiply = unpremultiply;
+        }
+
+        @Override
+        public void filter(int[] unused, int[] dst, int width, int height, int startRow, int endRow) {
+            final int[] src = this.src;
+            final int[] start = weights.start;
+            final int[] table = weights.weights;
+            final int taps = weights.taps;
+            final int srcHeight = this.srcHeight;
+            int[] sumA = new int[width];
+            int[] sumR = new int[width];
+            int[] sumG = new int[width];
+            int[] sumB = new int[width];
+            for (int y = startRow; y < endRow; y++) {
+                Arrays.fill(sumA, HALF);
+                Arrays.fill(sumR, HALF);
+                Arrays.fill(sumG, HALF);
+                Arrays.fill(sumB, HALF);
+                int first = start[y];
+                int n = Math.min(taps, srcHeight - first);
+                for (int k = 0; k < n; k++) {
+                    int w = table[y * taps + k];
+                    if (w == 0) {
+                        continue;
+                    }
+                    int srcRow = (first + k) * width;
+                    for (int x = 0; x < width; x++) {
+                        int c = src[srcRow + x];
+                        sumA[x] += (c >>> 24) * w;
+                        sumR[x] += ((c >> 16) & 0xFF) * w;
+                        sumG[x] += ((c >> 8) & 0xFF) * w;
+                        sumB[x] += (c & 0xFF) * w;
+                    }
+                }
+                int row = y * width;
+                for (int x = 0; x < width; x++) {
+                    int a = clamp(sumA[x] >> PRECISION_BITS);
+                    int r = clamp(sumR[x] >> PRECISION_BITS);
+                    int g = clamp(sumG[x] >> PRECISION_BITS);
+                    int b = clamp(sumB[x] >> PRECISION_BITS);
+                    if (unpremultiply && a < 255) {
+                        if (a == 0) {
+                            r = g = b = 0;
+                        } else {
+                            int half = a >> 1;
+                            r = Math.min(255, (r * 255 + half) / a);
+                            g = Math.min(255, (g * 255 + half) / a);
+                            b = Math.min(255, (b * 255 + half) / a);
+                        }
+                    }
+                    dst[row + x] = (a << 24) | (r << 16) | (g << 8) | b;
+                }
+            }
+        }
+    }
+}
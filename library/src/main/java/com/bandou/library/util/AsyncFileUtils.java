@@ -0,0 +1,556 @@
+/*
+ * Copyright (C) 2016 venshine.cn@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bandou.library.util;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 异步文件操作
+ * <p>
+ * 读、写、追加、复制、移动、删除都交给一个专用的I/O线程按提交顺序执行，返回Future，也可以在主线程回调结果。
+ * 队列有容量上限，队列满时提交线程阻塞等待（背压），避免无限堆积任务；在主线程提交时应设置等待超时，
+ * 超时或已关闭时不抛出异常，返回以RejectedExecutionException失败的Future并回调。
+ * 对同一文件的连续追加，如果前一次尚未开始执行，合并为一次写入并共享同一个Future，不改变与其他操作的先后顺序；
+ * 单次合并的内容有上限，超出后新建写入并同样受队列容量限制。
+ * 记录每类操作从提交到完成的耗时与队列长度：
+ * <pre>
+ * AsyncFileUtils io = new AsyncFileUtils(256);
+ * io.append(logFile, line, null);
+ * io.readFile(configFile, "UTF-8", new AsyncFileUtils.Callback&lt;String&gt;() {
+ *     public void onComplete(String result, Exception error) {
+ *         // 主线程
+ *     }
+ * });
+ * </pre>
+ *
+ * @author venshine
+ */
+public class AsyncFileUtils {
+
+    public static final int OP_READ = 0;
+    public static final int OP_WRITE = 1;
+    public static final int OP_APPEND = 2;
+    public static final int OP_COPY = 3;
+    public static final int OP_MOVE = 4;
+    public static final int OP_DELETE = 5;
+
+    private static final int OP_COUNT = 6;
+    private static final String DEFAULT_CHARSET = "UTF-8";
+    /**
+     * 合并追加的最大字符数，超出后不再合并，新的追加单独排队
+     */
+    private static final int MAX_BATCH_CHARS = 64 * 1024;
+
+    private final ThreadPoolExecutor executor;
+    /**
+     * 队列满时提交线程最多等待的毫秒数，小于0时一直等待
+     */
+    private final long submitTimeoutMillis;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    /**
+     * 所有提交按该锁串行入队，队列满时持有该锁阻塞；I/O线程从不获取该锁，不会因此死锁
+     */
+    private final Object submitLock = new Object();
+    /**
+     * 保护lastAppend与合并内容，提交线程与I/O线程都只短暂持有
+     */
+    private final Object appendLock = new Object();
+    /**
+     * 最后入队的任务为尚未开始写入的追加时，后续对同一文件的追加合并到其中；只在入队成功后设置
+     */
+    private AppendBatch lastAppend;
+
+    private final long[] counts = new long[OP_COUNT];
+    private final long[] totalLatency = new long[OP_COUNT];
+    private final long[] maxLatency = new long[OP_COUNT];
+    private long coalescedAppends;
+    private int peakQueueLength;
+
+    /**
+     * 操作完成回调，在主线程执行
+     *
+     * @param <T> the type parameter
+     */
+    public interface Callback<T> {
+        /**
+         * On complete.
+         *
+         * @param result 结果，失败时为null
+         * @param error  失败原因，成功时为null
+         */
+        void onComplete(T result, Exception error);
+    }
+
+    /**
+     * Instantiates a new Async file utils.
+     *
+     * @param queueCapacity 队列容量，队列满时提交线程阻塞
+     */
+    public AsyncFileUtils(int queueCapacity) {
+        this(queueCapacity, -1);
+    }
+
+    /**
+     * Instantiates a new Async file utils.
+     *
+     * @param queueCapacity       队列容量
+     * @param submitTimeoutMillis 队列满时提交线程最多等待的毫秒数，0表示不等待，小于0表示一直等待；
+     *                            超时后返回失败的Future
+     */
+    public AsyncFileUtils(int queueCapacity, long submitTimeoutMillis) {
+        this.submitTimeoutMillis = submitTimeoutMillis;
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, queueCapacity)), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "AsyncFileUtils");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                if (executor.isShutdown()) {
+                    throw new RejectedExecutionException("AsyncFileUtils has been shutdown.");
+                }
+                // 队列已满，等待空位
+                boolean queued;
+                try {
+                    if (AsyncFileUtils.this.submitTimeoutMillis < 0) {
+                        executor.getQueue().put(r);
+                        queued = true;
+                    } else {
+                        queued = executor.getQueue().offer(r, AsyncFileUtils.this.submitTimeoutMillis,
+                                TimeUnit.MILLISECONDS);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException(e);
+                }
+                if (!queued) {
+                    throw new RejectedExecutionException("AsyncFileUtils queue is full.");
+                }
+                // 等待期间已关闭时，I/O线程可能已经退出，任务不会再执行
+                if (executor.isShutdown() && executor.remove(r)) {
+                    throw new RejectedExecutionException("AsyncFileUtils has been shutdown.");
+                }
+            }
+        });
+    }
+
+    /**
+     * 读取文件内容
+     *
+     * @param file        the file
+     * @param charsetName the charset name
+     * @param callback    the callback，可以为null
+     * @return the future，文件不存在时结果为null
+     */
+    public Future<String> readFile(final File file, final String charsetName, Callback<String> callback) {
+        return submit(OP_READ, new Callable<String>() {
+            @Override
+            public String call() {
+                return FileUtils.readFileToString(file, charsetName);
+            }
+        }, callback);
+    }
+
+    /**
+     * 读取文件字节
+     *
+     * @param file     the file
+     * @param callback the callback，可以为null
+     * @return the future，文件不存在时结果为null
+     */
+    public Future<byte[]> readBytes(final File file, Callback<byte[]> callback) {
+        return submit(OP_READ, new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return FileUtils.readFileToBytes(file);
+            }
+        }, callback);
+    }
+
+    /**
+     * 原子写入文件，覆盖原有内容
+     *
+     * @param file     the file
+     * @param content  the content
+     * @param fsync    是否在重命名前fsync
+     * @param callback the callback，可以为null
+     * @return the future
+     */
+    public Future<Boolean> writeFile(final File file, final String content, final boolean fsync,
+                                     Callback<Boolean> callback) {
+        return submit(OP_WRITE, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return FileUtils.writeFileAtomic(file, content, DEFAULT_CHARSET, fsync);
+            }
+        }, callback);
+    }
+
+    /**
+     * 原子写入文件，覆盖原有内容
+     *
+     * @param file     the file
+     * @param data     the data，提交后不能再修改
+     * @param fsync    是否在重命名前fsync
+     * @param callback the callback，可以为null
+     * @return the future
+     */
+    public Future<Boolean> writeFile(final File file, final byte[] data, final boolean fsync,
+                                     Callback<Boolean> callback) {
+        return submit(OP_WRITE, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return FileUtils.writeFileAtomic(file, data, fsync);
+            }
+        }, callback);
+    }
+
+    /**
+     * 追加到文件末尾，尚未开始执行的对同一文件的追加合并为一次写入
+     *
+     * @param file     the file
+     * @param content  the content
+     * @param callback the callback，可以为null，合并的每次追加都会各自回调
+     * @return the future，合并的追加共享同一个Future
+     */
+    public Future<Boolean> append(File file, String content, Callback<Boolean> callback) {
+        synchronized (submitLock) {
+            synchronized (appendLock) {
+                AppendBatch batch = lastAppend;
+                if (batch != null && !batch.started && batch.file.equals(file)
+                        && batch.content.length() + content.length() <= MAX_BATCH_CHARS) {
+                    batch.content.append(content);
+                    batch.addCallback(callback);
+                    synchronized (this) {
+                        coalescedAppends++;
+                    }
+                    return batch.future;
+                }
+                lastAppend = null;
+            }
+            AppendBatch batch = new AppendBatch(file, content);
+            batch.addCallback(callback);
+            // 入队后才允许合并，队列满时阻塞期间其他提交都在submitLock上等待，顺序不变
+            boolean queued = execute(batch.future);
+            synchronized (appendLock) {
+                if (queued && !batch.started) {
+                    lastAppend = batch;
+                }
+            }
+            return batch.future;
+        }
+    }
+
+    /**
+     * 复制文件
+     *
+     * @param src      the src
+     * @param dest     the dest
+     * @param callback the callback，可以为null
+     * @return the future
+     */
+    public Future<Boolean> copyFile(final File src, final File dest, Callback<Boolean> callback) {
+        return submit(OP_COPY, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws FileNotFoundException {
+                return FileUtils.copyFile(src, dest, null);
+            }
+        }, callback);
+    }
+
+    /**
+     * 移动文件
+     *
+     * @param src      the src
+     * @param dest     the dest
+     * @param callback the callback，可以为null
+     * @return the future
+     */
+    public Future<Boolean> moveFile(final File src, final File dest, Callback<Boolean> callback) {
+        return submit(OP_MOVE, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws FileNotFoundException {
+                FileUtils.moveFile(src, dest);
+                return Boolean.TRUE;
+            }
+        }, callback);
+    }
+
+    /**
+     * 删除文件或目录
+     *
+     * @param file     the file
+     * @param callback the callback，可以为null
+     * @return the future
+     */
+    public Future<Boolean> deleteFile(final File file, Callback<Boolean> callback) {
+        return submit(OP_DELETE, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return FileUtils.deleteFile(file);
+            }
+        }, callback);
+    }
+
+    /**
+     * 当前排队的操作数
+     *
+     * @return the int
+     */
+    public int getQueueLength() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * 排队操作数的峰值
+     *
+     * @return the int
+     */
+    public synchronized int getPeakQueueLength() {
+        return peakQueueLength;
+    }
+
+    /**
+     * 已完成的操作数，合并的追加只算一次
+     *
+     * @param op OP_*
+     * @return the long
+     */
+    public synchronized long getCount(int op) {
+        return counts[op];
+    }
+
+    /**
+     * 从提交到完成的平均耗时，毫秒
+     *
+     * @param op OP_*
+     * @return the double
+     */
+    public synchronized double getAverageLatencyMillis(int op) {
+        return counts[op] == 0 ? 0 : totalLatency[op] / 1000000.0 / counts[op];
+    }
+
+    /**
+     * 从提交到完成的最大耗时，毫秒
+     *
+     * @param op OP_*
+     * @return the long
+     */
+    public synchronized long getMaxLatencyMillis(int op) {
+        return maxLatency[op] / 1000000L;
+    }
+
+    /**
+     * 被合并到已有写入中的追加次数
+     *
+     * @return the long
+     */
+    public synchronized long getCoalescedAppends() {
+        return coalescedAppends;
+    }
+
+    /**
+     * 执行完已提交的操作后关闭I/O线程
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "AsyncFileUtils[queue=" + getQueueLength() + ",peakQueue=" + peakQueueLength
+                + ",coalescedAppends=" + coalescedAppends + "]";
+    }
+
+    private <T> Future<T> submit(final int op, final Callable<T> callable, final Callback<T> callback) {
+        final long start = System.nanoTime();
+        IOTask<T> task = new IOTask<T>(callable) {
+            @Override
+            protected void done() {
+                record(op, start);
+                if (callback != null) {
+                    deliver(this, callback);
+                }
+            }
+        };
+        synchronized (submitLock) {
+            synchronized (appendLock) {
+                lastAppend = null;
+            }
+            execute(task);
+        }
+        return task;
+    }
+
+    /**
+     * 入队，队列满等待超时或已关闭时任务以RejectedExecutionException失败
+     *
+     * @return 是否已入队
+     */
+    private boolean execute(IOTask<?> task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.fail(e);
+            return false;
+        }
+        int length = executor.getQueue().size();
+        synchronized (this) {
+            if (length > peakQueueLength) {
+                peakQueueLength = length;
+            }
+        }
+        return true;
+    }
+
+    private synchronized void record(int op, long start) {
+        long latency = System.nanoTime() - start;
+        counts[op]++;
+        totalLatency[op] += latency;
+        if (latency > maxLatency[op]) {
+            maxLatency[op] = latency;
+        }
+    }
+
+    /**
+     * 在主线程回调已完成的任务
+     */
+    private <T> void deliver(final Future<T> future, final Callback<T> callback) {
+        T result = null;
+        Exception error = null;
+        try {
+            result = future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            error = cause instanceof Exception ? (Exception) cause : e;
+        } catch (Exception e) {
+            error = e;
+        }
+        final T r = result;
+        final Exception err = error;
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onComplete(r, err);
+            }
+        });
+    }
+
+    /**
+     * 可由提交线程标记为失败的任务
+     */
+    private static class IOTask<T> extends FutureTask<T> {
+
+        IOTask(Callable<T> callable) {
+            super(callable);
+        }
+
+        void fail(Throwable cause) {
+            setException(cause);
+        }
+    }
+
+    /**
+     * 同一文件合并后的追加
+     */
+    private final class AppendBatch implements Callable<Boolean> {
+
+        final File file;
+        final StringBuilder content;
+        final IOTask<Boolean> future;
+        private Callback<Boolean>[] callbacks;
+        private int callbackCount;
+        private final long start = System.nanoTime();
+        /**
+         * I/O线程开始写入，在appendLock锁内读写
+         */
+        boolean started;
+
+        AppendBatch(File file, String content) {
+            this.file = file;
+            this.content = new StringBuilder(content);
+            this.future = new IOTask<Boolean>(this) {
+                @Override
+                protected void done() {
+                    record(OP_APPEND, start);
+                    for (int i = 0; i < callbackCount; i++) {
+                        deliver(this, callbacks[i]);
+                    }
+                }
+            };
+        }
+
+        /**
+         * 在appendLock锁内调用
+         */
+        @SuppressWarnings("unchecked")
+        void addCallback(Callback<Boolean> callback) {
+            if (callback == null) {
+                return;
+            }
+            if (callbacks == null) {
+                callbacks = new Callback[4];
+            } else if (callbackCount == callbacks.length) {
+                Callback<Boolean>[] grown = new Callback[callbackCount * 2];
+                System.arraycopy(callbacks, 0, grown, 0, callbackCount);
+                callbacks = grown;
+            }
+            callbacks[callbackCount++] = callback;
+        }
+
+        @Override
+        public Boolean call() throws IOException {
+            String data;
+            synchronized (appendLock) {
+                // 开始写入后不再接受合并
+                started = true;
+                if (lastAppend == this) {
+                    lastAppend = null;
+                }
+                data = content.toString();
+            }
+            FileUtils.makeDirs(file.getAbsolutePath());
+            OutputStream os = new FileOutputStream(file, true);
+            try {
+                os.write(data.getBytes(DEFAULT_CHARSET));
+            } finally {
+                IOUtils.closeQuietly(os);
+            }
+            return Boolean.TRUE;
+        }
+    }
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2016 venshine.cn@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bandou.library.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 原子写文件
+ * <p>
+ * 内容先写入同目录下的临时文件，再重命名覆盖目标文件，进程崩溃时目标文件要么是旧内容、要么是完整的新内容。
+ * 是否调用fsync由同步模式决定，可以在持久性与吞吐量之间取舍：
+ * <ul>
+ * <li>{@link #SYNC_NONE}：不调用fsync，崩溃安全但断电可能丢失最近的写入，最快</li>
+ * <li>{@link #SYNC_EACH}：每次写入都在重命名前fsync，断电也不丢失</li>
+ * <li>{@link #SYNC_GROUP}：写入的临时文件暂不重命名，攒够一组或调用{@link #commit()}时统一fsync并重命名，
+ * 同一文件的多次写入只保留最后一次，只需一次fsync</li>
+ * </ul>
+ * 组提交模式下，提交前读取目标文件得到的仍是旧内容。进程内第一次写入某个文件时，
+ * 删除上次崩溃留下的该文件的临时文件（.name-*.tmp）。线程安全。
+ *
+ * @author venshine
+ */
+public class AtomicWriter {
+
+    public static final int SYNC_NONE = 0;
+    public static final int SYNC_EACH = 1;
+    public static final int SYNC_GROUP = 2;
+
+    /**
+     * 组提交模式下默认攒够多少个文件提交一次
+     */
+    public static final int DEFAULT_GROUP_SIZE = 32;
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * 本进程已清理过残留临时文件的目标文件，所有实例共用，之后出现的临时文件都属于本进程
+     */
+    private static final Set<String> CLEANED_TARGETS = new HashSet<String>();
+
+    private final int syncMode;
+    private final int groupSize;
+    /**
+     * 组提交模式下等待提交的目标文件与临时文件
+     */
+    private final Map<File, File> pending = new LinkedHashMap<File, File>();
+    /**
+     * 串行执行提交，保证先取出的一组先重命名；写入只需要实例锁，不会被提交中的fsync阻塞
+     */
+    private final Object commitLock = new Object();
+
+    private long writeCount;
+    private long syncCount;
+    private long bytesWritten;
+    private long syncNanos;
+
+    /**
+     * Instantiates a new Atomic writer.
+     *
+     * @param syncMode SYNC_NONE、SYNC_EACH或SYNC_GROUP
+     */
+    public AtomicWriter(int syncMode) {
+        this(syncMode, DEFAULT_GROUP_SIZE);
+    }
+
+    /**
+     * Instantiates a new Atomic writer.
+     *
+     * @param syncMode  SYNC_NONE、SYNC_EACH或SYNC_GROUP
+     * @param groupSize 组提交模式下等待提交的文件数达到该值时自动提交
+     */
+    public AtomicWriter(int syncMode, int groupSize) {
+        if (syncMode < SYNC_NONE || syncMode > SYNC_GROUP) {
+            throw new IllegalArgumentException("Unknown sync mode: " + syncMode);
+        }
+        this.syncMode = syncMode;
+        this.groupSize = Math.max(1, groupSize);
+    }
+
+    /**
+     * 写入字节
+     *
+     * @param target the target
+     * @param data   the data
+     * @param offset the offset
+     * @param length the length
+     * @throws IOException the io exception
+     */
+    public void write(File target, byte[] data, int offset, int length) throws IOException {
+        File temp = createTemp(target);
+        FileOutputStream out = null;
+        boolean success = false;
+        try {
+            out = new FileOutputStream(temp);
+            out.write(data, offset, length);
+            finish(target, temp, out, length);
+            success = true;
+        } finally {
+            IOUtils.closeQuietly(out);
+            if (!success) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * 写入字节
+     *
+     * @param target the target
+     * @param data   the data
+     * @throws IOException the io exception
+     */
+    public void write(File target, byte[] data) throws IOException {
+        write(target, data, 0, data.length);
+    }
+
+    /**
+     * 写入字符串
+     *
+     * @param target      the target
+     * @param content     the content
+     * @param charsetName the charset name
+     * @throws IOException the io exception
+     */
+    public void write(File target, String content, String charsetName) throws IOException {
+        byte[] data;
+        try {
+            data = content.getBytes(charsetName);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalArgumentException(e);
+        }
+        write(target, data, 0, data.length);
+    }
+
+    /**
+     * 写入流的全部内容，不关闭is
+     *
+     * @param target the target
+     * @param is     the is
+     * @throws IOException the io exception
+     */
+    public void write(File target, InputStream is) throws IOException {
+        File temp = createTemp(target);
+        FileOutputStream out = null;
+        boolean success = false;
+        try {
+            long length = new FileCopy().copy(is, temp, false);
+            // 以追加方式打开不会截断已写入的内容，只用于fsync
+            out = new FileOutputStream(temp, true);
+            finish(target, temp, out, length);
+            success = true;
+        } finally {
+            IOUtils.closeQuietly(out);
+            if (!success) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * 组提交模式下fsync并重命名所有等待提交的文件，其他模式下无操作
+     *
+     * @throws IOException 任一文件提交失败，其余文件仍会提交
+     */
+    public void commit() throws IOException {
+        synchronized (commitLock) {
+            List<Map.Entry<File, File>> group;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                group = new ArrayList<Map.Entry<File, File>>(pending.entrySet());
+                pending.clear();
+            }
+            IOException error = null;
+            for (Map.Entry<File, File> entry : group) {
+                File temp = entry.getValue();
+                try {
+                    FileOutputStream out = new FileOutputStream(temp, true);
+                    try {
+                        sync(out);
+                    } finally {
+                        IOUtils.closeQuietly(out);
+                    }
+                    rename(temp, entry.getKey());
+                } catch (IOException e) {
+                    temp.delete();
+                    if (error == null) {
+                        error = e;
+                    }
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+
+    /**
+     * 等待提交的文件数
+     *
+     * @return the int
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    public int getSyncMode() {
+        return syncMode;
+    }
+
+    /**
+     * 写入次数
+     *
+     * @return the long
+     */
+    public synchronized long getWriteCount() {
+        return writeCount;
+    }
+
+    /**
+     * fsync次数
+     *
+     * @return the long
+     */
+    public synchronized long getSyncCount() {
+        return syncCount;
+    }
+
+    /**
+     * 写入的字节数
+     *
+     * @return the long
+     */
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * fsync的总耗时，毫秒
+     *
+     * @return the long
+     */
+    public synchronized long getSyncMillis() {
+        return syncNanos / 1000000L;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "AtomicWriter[mode=" + syncMode + ",writes=" + writeCount + ",syncs=" + syncCount
+                + ",bytes=" + bytesWritten + ",syncMs=" + syncNanos / 1000000L + ",pending=" + pending.size() + "]";
+    }
+
+    private static File createTemp(File target) throws IOException {
+        File dir = target.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        String prefix = "." + target.getName() + "-";
+        synchronized (CLEANED_TARGETS) {
+            // 在锁内清理，其他线程要等清理结束后才能为同一文件创建临时文件
+            if (dir != null && CLEANED_TARGETS.add(target.getAbsolutePath())) {
+                deleteStaleTemps(dir, prefix);
+            }
+        }
+        return File.createTempFile(prefix, TEMP_SUFFIX, dir);
+    }
+
+    /**
+     * 删除崩溃时残留的临时文件
+     */
+    private static void deleteStaleTemps(File dir, String prefix) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(prefix) && name.endsWith(TEMP_SUFFIX)
+                    && isRandomPart(name.substring(prefix.length(), name.length() - TEMP_SUFFIX.length()))) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * createTempFile插入的随机数，用于区分如a与a-b两个目标文件的临时文件
+     */
+    private static boolean isRandomPart(String part) {
+        int start = part.startsWith("-") ? 1 : 0;
+        if (part.length() <= start) {
+            return false;
+        }
+        for (int i = start; i < part.length(); i++) {
+            char c = part.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void rename(File temp, File target) throws IOException {
+        if (!temp.renameTo(target)) {
+            throw new IOException("Cannot rename " + temp + " to " + target);
+        }
+    }
+
+    /**
+     * 临时文件写完后按同步模式fsync、重命名或加入等待提交的列表
+     */
+    private void finish(File target, File temp, FileOutputStream out, long length) throws IOException {
+        out.flush();
+        if (syncMode == SYNC_EACH) {
+            sync(out);
+        }
+        out.close();
+        boolean commit = false;
+        synchronized (this) {
+            writeCount++;
+            bytesWritten += length;
+            if (syncMode == SYNC_GROUP) {
+                File previous = pending.remove(target);
+                if (previous != null) {
+                    previous.delete();
+                }
+                pending.put(target, temp);
+                commit = pending.size() >= groupSize;
+            }
+        }
+        if (syncMode != SYNC_GROUP) {
+            rename(temp, target);
+        } else if (commit) {
+            commit();
+        }
+    }
+
+    private void sync(FileOutputStream out) throws IOException {
+        long start = System.nanoTime();
+        out.getFD().sync();
+        synchronized (this) {
+            syncCount++;
+            syncNanos += System.nanoTime() - start;
+        }
+    }
+}
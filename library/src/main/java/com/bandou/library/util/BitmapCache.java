@@ -0,0 +1,428 @@
+/*
+ * Copyright (C) 2016 venshine.cn@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bandou.library.util;
+
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * 内存+磁盘两级Bitmap缓存
+ * <p>
+ * 内存缓存按Bitmap占用的字节数计算容量，磁盘缓存为带日志的LRU缓存，默认位于应用缓存目录下。
+ * 缓存key由图片来源与有序的变换链组成，见{@link #createKey(String, String...)}。
+ * 所有方法都可以在多线程中调用，磁盘读写较慢，不建议在主线程调用{@link #get(String)}与{@link #put(String, Bitmap)}。
+ * <pre>
+ * BitmapCache cache = new BitmapCache(context, 8 * 1024 * 1024, 50 * 1024 * 1024);
+ * cache.register(context);
+ * String key = BitmapCache.createKey(path, "scale(200)", "rounded(8)");
+ * Bitmap bitmap = cache.get(key);
+ * </pre>
+ *
+ * @author venshine
+ */
+public class BitmapCache {
+
+    private static final String DISK_CACHE_DIR = "bitmap";
+
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<String, Entry>(0, 0.75f, true);
+    private final int maxMemorySize;
+    private int memorySize;
+
+    private final BitmapDiskCache diskCache;
+    private Bitmap.CompressFormat compressFormat = Bitmap.CompressFormat.PNG;
+    private int compressQuality = 100;
+
+    private int memoryHitCount;
+    private int diskHitCount;
+    private int missCount;
+    private int putCount;
+    private int evictionCount;
+
+    /**
+     * 在应用缓存目录下创建缓存
+     *
+     * @param context     the context
+     * @param memoryBytes 内存缓存字节数
+     * @param diskBytes   磁盘缓存字节数，小于等于0时不使用磁盘缓存
+     */
+    public BitmapCache(Context context, int memoryBytes, long diskBytes) {
+        this(memoryBytes, diskBytes > 0 ? new File(context.getCacheDir(), DISK_CACHE_DIR) : null, diskBytes);
+    }
+
+    /**
+     * Instantiates a new Bitmap cache.
+     *
+     * @param memoryBytes 内存缓存字节数
+     * @param diskDir     磁盘缓存目录，为null时不使用磁盘缓存
+     * @param diskBytes   磁盘缓存字节数
+     */
+    public BitmapCache(int memoryBytes, File diskDir, long diskBytes) {
+        if (memoryBytes <= 0) {
+            throw new IllegalArgumentException("memoryBytes <= 0");
+        }
+        this.maxMemorySize = memoryBytes;
+        BitmapDiskCache disk = null;
+        if (diskDir != null && diskBytes > 0) {
+            disk = new BitmapDiskCache(diskDir, diskBytes);
+            try {
+                disk.open();
+            } catch (IOException e) {
+                e.printStackTrace();
+                disk = null;
+            }
+        }
+        this.diskCache = disk;
+    }
+
+    /**
+     * 生成缓存key，如 "/sdcard/a.jpg#scale(200)+rounded(8)"
+     *
+     * @param source     图片来源，如路径、url、资源id
+     * @param transforms 按执行顺序排列的变换
+     * @return the string
+     */
+    public static String createKey(String source, String... transforms) {
+        if (transforms == null || transforms.length == 0) {
+            return source;
+        }
+        StringBuilder sb = new StringBuilder(source).append('#');
+        for (int i = 0; i < transforms.length; i++) {
+            if (i > 0) {
+                sb.append('+');
+            }
+            sb.append(transforms[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 设置写入磁盘缓存的格式，默认为无损的PNG
+     *
+     * @param format  the format
+     * @param quality the quality
+     */
+    public void setCompressFormat(Bitmap.CompressFormat format, int quality) {
+        synchronized (this) {
+            this.compressFormat = format;
+            this.compressQuality = quality;
+        }
+    }
+
+    /**
+     * 依次从内存、磁盘中查找，磁盘命中时解码并放入内存缓存
+     *
+     * @param key the key
+     * @return 缓存的Bitmap，不存在时返回null
+     */
+    public Bitmap get(String key) {
+        synchronized (this) {
+            Entry entry = memory.get(key);
+            if (entry != null && !entry.bitmap.isRecycled()) {
+                memoryHitCount++;
+                return entry.bitmap;
+            }
+        }
+        Bitmap bitmap = null;
+        if (diskCache != null) {
+            File file = diskCache.get(key);
+            if (file != null) {
+                bitmap = BitmapFactory.decodeFile(file.getAbsolutePath());
+            }
+        }
+        synchronized (this) {
+            if (bitmap == null) {
+                missCount++;
+                return null;
+            }
+            diskHitCount++;
+            putMemory(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 只从内存缓存中查找，可以在主线程调用
+     *
+     * @param key the key
+     * @return the bitmap
+     */
+    public Bitmap getMemory(String key) {
+        synchronized (this) {
+            Entry entry = memory.get(key);
+            if (entry != null && !entry.bitmap.isRecycled()) {
+                memoryHitCount++;
+                return entry.bitmap;
+            }
+            missCount++;
+            return null;
+        }
+    }
+
+    /**
+     * 放入内存缓存并写入磁盘缓存，放入后调用方不能回收该Bitmap
+     *
+     * @param key    the key
+     * @param bitmap the bitmap
+     */
+    public void put(String key, Bitmap bitmap) {
+        if (key == null || bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        Bitmap.CompressFormat format;
+        int quality;
+        synchronized (this) {
+            putMemory(key, bitmap);
+            format = compressFormat;
+            quality = compressQuality;
+        }
+        if (diskCache != null) {
+            diskCache.put(key, bitmap, format, quality);
+        }
+    }
+
+    /**
+     * 删除缓存
+     *
+     * @param key the key
+     */
+    public void remove(String key) {
+        synchronized (this) {
+            Entry old = memory.remove(key);
+            if (old != null) {
+                memorySize -= old.bytes;
+            }
+        }
+        if (diskCache != null) {
+            diskCache.remove(key);
+        }
+    }
+
+    /**
+     * 清空内存缓存与磁盘缓存
+     */
+    public void clear() {
+        trimMemoryToSize(-1);
+        if (diskCache != null) {
+            diskCache.clear();
+        }
+    }
+
+    /**
+     * 清空内存缓存，磁盘缓存保留
+     */
+    public void clearMemory() {
+        trimMemoryToSize(-1);
+    }
+
+    /**
+     * 关闭磁盘缓存日志
+     */
+    public void close() {
+        if (diskCache != null) {
+            diskCache.close();
+        }
+    }
+
+    /**
+     * 根据系统内存压力释放内存缓存，在ComponentCallbacks2.onTrimMemory中调用
+     *
+     * @param level the level
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            trimMemoryToSize(-1);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            trimMemoryToSize(maxMemorySize / 2);
+        }
+    }
+
+    /**
+     * 系统内存不足时清空内存缓存
+     */
+    public void onLowMemory() {
+        trimMemoryToSize(-1);
+    }
+
+    /**
+     * 注册到应用，在内存紧张时自动释放内存缓存，API 14以下不做处理
+     *
+     * @param context the context
+     */
+    public void register(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            registerCallbacks(context.getApplicationContext());
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private void registerCallbacks(Context context) {
+        context.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                trimMemory(level);
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+
+            @Override
+            public void onLowMemory() {
+                BitmapCache.this.onLowMemory();
+            }
+        });
+    }
+
+    /**
+     * 内存缓存当前字节数
+     *
+     * @return the int
+     */
+    public synchronized final int memorySize() {
+        return memorySize;
+    }
+
+    /**
+     * 内存缓存最大字节数
+     *
+     * @return the int
+     */
+    public synchronized final int maxMemorySize() {
+        return maxMemorySize;
+    }
+
+    /**
+     * 磁盘缓存当前字节数
+     *
+     * @return the long
+     */
+    public final long diskSize() {
+        return diskCache != null ? diskCache.size() : 0;
+    }
+
+    /**
+     * 内存缓存命中次数
+     *
+     * @return the int
+     */
+    public synchronized final int memoryHitCount() {
+        return memoryHitCount;
+    }
+
+    /**
+     * 磁盘缓存命中次数
+     *
+     * @return the int
+     */
+    public synchronized final int diskHitCount() {
+        return diskHitCount;
+    }
+
+    /**
+     * 未命中次数
+     *
+     * @return the int
+     */
+    public synchronized final int missCount() {
+        return missCount;
+    }
+
+    /**
+     * 放入内存缓存的次数
+     *
+     * @return the int
+     */
+    public synchronized final int putCount() {
+        return putCount;
+    }
+
+    /**
+     * 从内存缓存中移除的次数
+     *
+     * @return the int
+     */
+    public synchronized final int evictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * 命中率，0~1
+     *
+     * @return the float
+     */
+    public synchronized final float hitRate() {
+        int accesses = memoryHitCount + diskHitCount + missCount;
+        return accesses != 0 ? (memoryHitCount + diskHitCount) * 1.0F / accesses : 0;
+    }
+
+    @Override
+    public synchronized final String toString() {
+        return String.format("BitmapCache[memorySize=%d,maxMemorySize=%d,memoryHits=%d,diskHits=%d,"
+                        + "misses=%d,evictions=%d,hitRate=%d%%]", memorySize, maxMemorySize, memoryHitCount,
+                diskHitCount, missCount, evictionCount, (int) (hitRate() * 100));
+    }
+
+    private void putMemory(String key, Bitmap bitmap) {
+        int bytes = BitmapUtils.getBitmapSize(bitmap);
+        if (bytes > maxMemorySize) {
+            return;
+        }
+        putCount++;
+        Entry old = memory.put(key, new Entry(bitmap, bytes));
+        memorySize += bytes;
+        if (old != null) {
+            memorySize -= old.bytes;
+        }
+        trimMemoryToSize(maxMemorySize);
+    }
+
+    /**
+     * 移除最久未使用的Bitmap直到不超过maxSize，不回收被移除的Bitmap，因为调用方可能仍在使用
+     */
+    private synchronized void trimMemoryToSize(int maxSize) {
+        Iterator<Entry> iterator = memory.values().iterator();
+        while (memorySize > maxSize && iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            iterator.remove();
+            memorySize -= eldest.bytes;
+            evictionCount++;
+        }
+    }
+
+    /**
+     * 记录放入时的字节数，Bitmap被外部回收后仍能正确计算容量
+     */
+    private static final class Entry {
+        final Bitmap bitmap;
+        final int bytes;
+
+        Entry(Bitmap bitmap, int bytes) {
+            this.bitmap = bitmap;
+            this.bytes = bytes;
+        }
+    }
+}
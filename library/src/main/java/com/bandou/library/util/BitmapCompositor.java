@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2016 venshine.cn@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bandou.library.util;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Shader;
+import android.os.Build;
+
+/**
+ * 圆角、倒影、水印合成
+ * <p>
+ * 在一次Canvas绘制中把圆角裁剪、倒影与水印画到同一张目标图片上，不产生中间图片。
+ * 圆角路径与倒影渐变只与尺寸有关，按尺寸缓存最近使用的几组，列表中同尺寸的条目预热后不再分配对象：
+ * <pre>
+ * BitmapCompositor compositor = new BitmapCompositor().setCornerRadius(12).setReflection(true);
+ * // getView
+ * Bitmap card = compositor.compose(cover, pool);
+ * </pre>
+ * 非线程安全，通常只在主线程使用。
+ *
+ * @author venshine
+ */
+public class BitmapCompositor {
+
+    /**
+     * 原图与倒影之间的间隔
+     */
+    public static final int REFLECTION_GAP = 4;
+
+    private static final int MAX_CACHED_SIZES = 4;
+    private static final int REFLECTION_START_COLOR = 0x70ffffff;
+    private static final int REFLECTION_END_COLOR = 0x00ffffff;
+
+    private float cornerRadius;
+    private boolean reflection;
+    private Bitmap watermark;
+    private int watermarkMargin;
+
+    private final Canvas canvas = new Canvas();
+    private final Paint bitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Paint maskPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint srcInPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Paint gapPaint = new Paint();
+    private final Paint gradientPaint = new Paint();
+    private final Rect srcRect = new Rect();
+    private final Rect dstRect = new Rect();
+    private final SizeEntry[] cache = new SizeEntry[MAX_CACHED_SIZES];
+
+    /**
+     * Instantiates a new Bitmap compositor.
+     */
+    public BitmapCompositor() {
+        maskPaint.setColor(0xff424242);
+        srcInPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC_IN));
+        gradientPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_IN));
+    }
+
+    /**
+     * 圆角大小
+     *
+     * @param radius 圆角半径，0为不裁剪
+     * @return the bitmap compositor
+     */
+    public BitmapCompositor setCornerRadius(float radius) {
+        if (cornerRadius != radius) {
+            cornerRadius = radius;
+            clearCache();
+        }
+        return this;
+    }
+
+    /**
+     * 是否在下方添加原图下半部分的倒影，输出高度为原图的1.5倍，倒影底部被间隔占去的部分不绘制
+     *
+     * @param reflection the reflection
+     * @return the bitmap compositor
+     */
+    public BitmapCompositor setReflection(boolean reflection) {
+        this.reflection = reflection;
+        return this;
+    }
+
+    /**
+     * 右下角水印
+     *
+     * @param watermark 水印，为null时不添加
+     * @param margin    水印与原图右边、下边的距离
+     * @return the bitmap compositor
+     */
+    public BitmapCompositor setWatermark(Bitmap watermark, int margin) {
+        this.watermark = watermark;
+        this.watermarkMargin = margin;
+        return this;
+    }
+
+    /**
+     * 合成后图片的高度
+     *
+     * @param height 原图高度
+     * @return the int
+     */
+    public int getOutputHeight(int height) {
+        return reflection ? height + height / 2 : height;
+    }
+
+    /**
+     * 合成到新建的ARGB_8888图片
+     *
+     * @param src 原图
+     * @return bitmap
+     */
+    public Bitmap compose(Bitmap src) {
+        return compose(src, (BitmapPool) null);
+    }
+
+    /**
+     * 合成到从复用池获取的ARGB_8888图片
+     *
+     * @param src  原图
+     * @param pool 复用池，为null时新建
+     * @return bitmap
+     */
+    public Bitmap compose(Bitmap src, BitmapPool pool) {
+        int width = src.getWidth();
+        int height = getOutputHeight(src.getHeight());
+        Bitmap dst = pool != null ? pool.getBitmap(width, height, Bitmap.Config.ARGB_8888)
+                : Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        return compose(src, dst);
+    }
+
+    /**
+     * 合成到调用方提供的图片，原有内容被替换
+     *
+     * @param src 原图
+     * @param dst 可修改的ARGB_8888图片，宽度与src相同，高度为{@link #getOutputHeight(int)}
+     * @return dst
+     */
+    public Bitmap compose(Bitmap src, Bitmap dst) {
+        if (src == dst) {
+            throw new IllegalArgumentException("src and dst must be different bitmaps.");
+        }
+        final int width = src.getWidth();
+        final int height = src.getHeight();
+        final SizeEntry entry = getEntry(width, height);
+        dst.eraseColor(0);
+        canvas.setBitmap(dst);
+        try {
+            drawImage(src, entry);
+            if (reflection) {
+                final int top = height + REFLECTION_GAP;
+                final int bottom = height + height / 2;
+                // 以原图底边下方的间隔中线为轴翻转，只绘制原图下半部分
+                int count = canvas.save();
+                canvas.clipRect(0, top, width, bottom);
+                canvas.translate(0, height * 2 + REFLECTION_GAP);
+                canvas.scale(1, -1);
+                drawImage(src, entry);
+                canvas.restoreToCount(count);
+                canvas.drawRect(0, height, width, top, gapPaint);
+                gradientPaint.setShader(entry.gradient);
+                canvas.drawRect(0, height, width, bottom + REFLECTION_GAP, gradientPaint);
+                gradientPaint.setShader(null);
+            }
+            if (watermark != null) {
+                canvas.drawBitmap(watermark, width - watermark.getWidth() - watermarkMargin,
+                        height - watermark.getHeight() - watermarkMargin, bitmapPaint);
+            }
+        } finally {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                canvas.setBitmap(null);
+            }
+        }
+        return dst;
+    }
+
+    /**
+     * 清空缓存的路径与渐变
+     */
+    public void clearCache() {
+        for (int i = 0; i < cache.length; i++) {
+            cache[i] = null;
+        }
+    }
+
+    /**
+     * 在(0, 0, width, height)处绘制原图，有圆角时先画圆角蒙版再以SRC_IN模式绘制原图
+     */
+    private void drawImage(Bitmap src, SizeEntry entry) {
+        if (entry.roundPath == null) {
+            canvas.drawBitmap(src, 0, 0, bitmapPaint);
+            return;
+        }
+        canvas.drawPath(entry.roundPath, maskPaint);
+        srcRect.set(0, 0, src.getWidth(), src.getHeight());
+        dstRect.set(srcRect);
+        canvas.drawBitmap(src, srcRect, dstRect, srcInPaint);
+    }
+
+    /**
+     * 查找尺寸对应的缓存，命中时移到最前，未命中时替换最久未使用的一项
+     */
+    private SizeEntry getEntry(int width, int height) {
+        int index = cache.length - 1;
+        for (int i = 0; i < cache.length; i++) {
+            SizeEntry e = cache[i];
+            if (e == null || (e.width == width && e.height == height)) {
+                index = i;
+                break;
+            }
+        }
+        SizeEntry entry = cache[index];
+        if (entry == null || entry.width != width || entry.height != height) {
+            entry = new SizeEntry(width, height, cornerRadius);
+        }
+        System.arraycopy(cache, 0, cache, 1, index);
+        cache[0] = entry;
+        return entry;
+    }
+
+    private static final class SizeEntry {
+
+        final int width;
+        final int height;
+        final Path roundPath;
+        final LinearGradient gradient;
+
+        SizeEntry(int width, int height, float radius) {
+            this.width = width;
+            this.height = height;
+            if (radius > 0) {
+                roundPath = new Path();
+                roundPath.addRoundRect(new RectF(0, 0, width, height), radius, radius, Path.Direction.CW);
+            } else {
+                roundPath = null;
+            }
+            int total = height + height / 2;
+            gradient = new LinearGradient(0, height, 0, total + REFLECTION_GAP, REFLECTION_START_COLOR,
+                    REFLECTION_END_COLOR, Shader.TileMode.CLAMP);
+        }
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2016 venshine.cn@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bandou.library.util;
+
+import android.graphics.Bitmap;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 基于追加日志的磁盘LRU缓存，供{@link BitmapCache}使用
+ * <p>
+ * 日志每行一条记录：PUT &lt;name&gt; &lt;size&gt;、READ &lt;name&gt;、REMOVE &lt;name&gt;，
+ * 打开时重放日志恢复LRU顺序，冗余记录过多时重写日志。
+ * 文件名为key的MD5，写入时先写临时文件再重命名，保证缓存文件完整。
+ * 目录可以与其他文件共用，清理时只删除符合缓存命名规则的文件。
+ *
+ * @author venshine
+ */
+final class BitmapDiskCache {
+
+    private static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_FILE_TEMP = "journal.tmp";
+    private static final String PUT = "PUT";
+    private static final String READ = "READ";
+    private static final String REMOVE = "REMOVE";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * 冗余记录超过该数量且超过有效记录数时重写日志
+     */
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+    private final File directory;
+    private final long maxSize;
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(0, 0.75f, true);
+    private long size;
+    private int redundantOpCount;
+    private Writer journalWriter;
+
+    BitmapDiskCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 打开缓存目录并重放日志
+     */
+    synchronized void open() throws IOException {
+        if (journalWriter != null) {
+            return;
+        }
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        File journal = new File(directory, JOURNAL_FILE);
+        if (journal.exists()) {
+            readJournal(journal);
+        }
+        rebuildJournal();
+        deleteUntrackedFiles();
+        trimToSize();
+    }
+
+    /**
+     * 获取缓存文件
+     *
+     * @return 缓存文件，不存在时返回null
+     */
+    synchronized File get(String key) {
+        String name = MD5Utils.getMD5Str(key);
+        if (journalWriter == null || !entries.containsKey(name)) {
+            return null;
+        }
+        File file = new File(directory, name);
+        if (!file.exists()) {
+            removeEntry(name);
+            return null;
+        }
+        appendJournal(READ, name, -1);
+        compactIfNeeded();
+        return file;
+    }
+
+    /**
+     * 编码并写入Bitmap，编码在锁外写入独立的临时文件，只有重命名和更新日志时持有锁，不阻塞并发的读取
+     *
+     * @return 是否写入成功
+     */
+    boolean put(String key, Bitmap bitmap, Bitmap.CompressFormat format, int quality) {
+        synchronized (this) {
+            if (journalWriter == null) {
+                return false;
+            }
+        }
+        String name = MD5Utils.getMD5Str(key);
+        File temp = null;
+        OutputStream os = null;
+        boolean success = false;
+        try {
+            temp = File.createTempFile(name + "-", TEMP_SUFFIX, directory);
+            os = new BufferedOutputStream(new FileOutputStream(temp), 16 * 1024);
+            success = bitmap.compress(format, quality, os);
+            os.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+            success = false;
+        } finally {
+            IOUtils.closeQuietly(os);
+        }
+        if (temp == null) {
+            return false;
+        }
+        synchronized (this) {
+            File file = new File(directory, name);
+            if (!success || journalWriter == null || !temp.renameTo(file)) {
+                temp.delete();
+                return false;
+            }
+            long length = file.length();
+            Long old = entries.put(name, length);
+            if (old != null) {
+                size -= old;
+                redundantOpCount++;
+            }
+            size += length;
+            appendJournal(PUT, name, length);
+            trimToSize();
+            return true;
+        }
+    }
+
+    /**
+     * 删除缓存
+     */
+    synchronized void remove(String key) {
+        removeEntry(MD5Utils.getMD5Str(key));
+        compactIfNeeded();
+    }
+
+    /**
+     * 清空缓存
+     */
+    synchronized void clear() {
+        for (String name : entries.keySet()) {
+            new File(directory, name).delete();
+        }
+        entries.clear();
+        size = 0;
+        try {
+            rebuildJournal();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    synchronized long size() {
+        return size;
+    }
+
+    synchronized void close() {
+        IOUtils.closeQuietly(journalWriter);
+        journalWriter = null;
+    }
+
+    private void readJournal(File journal) {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(journal), "US-ASCII"));
+            String line;
+            int lineCount = 0;
+            while ((line = reader.readLine()) != null) {
+                lineCount++;
+                String[] parts = line.split(" ");
+                if (parts.length < 2) {
+                    continue;
+                }
+                String name = parts[1];
+                if (PUT.equals(parts[0]) && parts.length == 3) {
+                    Long old = entries.put(name, Long.parseLong(parts[2]));
+                    if (old != null) {
+                        size -= old;
+                    }
+                    size += Long.parseLong(parts[2]);
+                } else if (READ.equals(parts[0])) {
+                    entries.get(name);
+                } else if (REMOVE.equals(parts[0])) {
+                    Long old = entries.remove(name);
+                    if (old != null) {
+                        size -= old;
+                    }
+                }
+            }
+            redundantOpCount = lineCount - entries.size();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (NumberFormatException e) {
+            // 日志尾部不完整时丢弃之后的记录
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+        // 删除日志中没有记录或已丢失的文件
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (!new File(directory, entry.getKey()).exists()) {
+                size -= entry.getValue();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 按当前LRU顺序重写日志，先写临时文件再重命名
+     */
+    private void rebuildJournal() throws IOException {
+        IOUtils.closeQuietly(journalWriter);
+        File temp = new File(directory, JOURNAL_FILE_TEMP);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), "US-ASCII"));
+        try {
+            for (Map.Entry<String, Long> entry : entries.entrySet()) {
+                writer.write(PUT + ' ' + entry.getKey() + ' ' + entry.getValue() + '\n');
+            }
+        } finally {
+            writer.close();
+        }
+        File journal = new File(directory, JOURNAL_FILE);
+        if (!temp.renameTo(journal)) {
+            journal.delete();
+            if (!temp.renameTo(journal)) {
+                throw new IOException("Cannot rename journal.");
+            }
+        }
+        redundantOpCount = 0;
+        journalWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journal, true), "US-ASCII"));
+    }
+
+    /**
+     * 清理日志中没有记录的缓存文件和上次未完成写入留下的临时文件，只在打开时执行，
+     * 此时还没有进行中的写入；只删除符合缓存命名规则的文件，目录中的其他文件保持不变
+     */
+    private void deleteUntrackedFiles() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                if (isCacheName(name.substring(0, Math.min(name.length(), 32)))) {
+                    file.delete();
+                }
+            } else if (isCacheName(name) && !entries.containsKey(name)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * 是否为缓存文件名，即32位小写十六进制的MD5
+     */
+    private static boolean isCacheName(String name) {
+        if (name.length() != 32) {
+            return false;
+        }
+        for (int i = 0; i < 32; i++) {
+            char c = name.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void appendJournal(String op, String name, long length) {
+        if (journalWriter == null) {
+            return;
+        }
+        try {
+            journalWriter.write(length >= 0 ? op + ' ' + name + ' ' + length + '\n' : op + ' ' + name + '\n');
+            journalWriter.flush();
+            if (!PUT.equals(op)) {
+                redundantOpCount++;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void removeEntry(String name) {
+        Long old = entries.remove(name);
+        if (old == null) {
+            return;
+        }
+        size -= old;
+        new File(directory, name).delete();
+        appendJournal(REMOVE, name, -1);
+    }
+
+    private void trimToSize() {
+        while (size > maxSize && !entries.isEmpty()) {
+            removeEntry(entries.keySet().iterator().next());
+        }
+        compactIfNeeded();
+    }
+
+    private void compactIfNeeded() {
+        if (redundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && redundantOpCount >= entries.size()) {
+            try {
+                rebuildJournal();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2016 venshine.cn@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bandou.library.util;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bitmap编码保存
+ * <p>
+ * 先经过每个线程复用的64KB缓冲区写入同目录下的临时文件，写完后重命名为目标文件，
+ * 进程崩溃或编码失败时目标文件要么是旧内容、要么是完整的新内容，不会出现写了一半的图片。
+ * 只有要求时才调用fsync，避免每次保存都等待磁盘。
+ * <pre>
+ * BitmapEncoder encoder = new BitmapEncoder(Executors.newSingleThreadExecutor());
+ * encoder.encodeAsync(bitmap, Bitmap.CompressFormat.JPEG, 90, file, false, new BitmapEncoder.Callback() {
+ *     public void onComplete(BitmapEncoder.Result result) {
+ *         // 主线程
+ *     }
+ * });
+ * </pre>
+ *
+ * @author venshine
+ */
+public class BitmapEncoder {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    private final Executor executor;
+    private Handler handler;
+
+    private final AtomicLong encodeCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong totalEncodeMillis = new AtomicLong();
+
+    /**
+     * 编码完成回调，在主线程执行
+     */
+    public interface Callback {
+        /**
+         * On complete.
+         *
+         * @param result the result
+         */
+        void onComplete(Result result);
+    }
+
+    /**
+     * 编码结果
+     */
+    public static final class Result {
+        /**
+         * 目标文件
+         */
+        public final File file;
+        /**
+         * 是否成功
+         */
+        public final boolean success;
+        /**
+         * 写入的字节数
+         */
+        public final long bytesWritten;
+        /**
+         * 编码与写入耗时，毫秒
+         */
+        public final long encodeTimeMillis;
+        /**
+         * 失败原因，成功时为null
+         */
+        public final Exception error;
+
+        Result(File file, boolean success, long bytesWritten, long encodeTimeMillis, Exception error) {
+            this.file = file;
+            this.success = success;
+            this.bytesWritten = bytesWritten;
+            this.encodeTimeMillis = encodeTimeMillis;
+            this.error = error;
+        }
+
+        @Override
+        public String toString() {
+            return "Result[file=" + file + ",success=" + success + ",bytes=" + bytesWritten
+                    + ",time=" + encodeTimeMillis + "ms]";
+        }
+    }
+
+    /**
+     * 只支持同步编码
+     */
+    public BitmapEncoder() {
+        this(null);
+    }
+
+    /**
+     * Instantiates a new Bitmap encoder.
+     *
+     * @param executor 异步编码使用的后台线程池
+     */
+    public BitmapEncoder(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * 同步编码并保存
+     *
+     * @param bitmap  the bitmap
+     * @param format  the format
+     * @param quality the quality
+     * @param target  目标文件
+     * @param fsync   是否在重命名前调用fsync，确保断电后数据仍在磁盘上
+     * @return the result
+     */
+    public Result encode(final Bitmap bitmap, final Bitmap.CompressFormat format, final int quality,
+                         File target, boolean fsync) {
+        return write(target, fsync, new Writer() {
+            @Override
+            public boolean writeTo(OutputStream os) throws IOException {
+                return bitmap.compress(format, quality, os);
+            }
+        });
+    }
+
+    /**
+     * 在后台线程编码保存，完成后在主线程回调，回调前不能回收bitmap
+     *
+     * @param bitmap   the bitmap
+     * @param format   the format
+     * @param quality  the quality
+     * @param target   目标文件
+     * @param fsync    是否调用fsync
+     * @param callback 完成回调，可以为null
+     */
+    public void encodeAsync(final Bitmap bitmap, final Bitmap.CompressFormat format, final int quality,
+                            final File target, final boolean fsync, final Callback callback) {
+        if (executor == null) {
+            throw new IllegalStateException("BitmapEncoder is created without an executor.");
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Result result = encode(bitmap, format, quality, target, fsync);
+                if (callback != null) {
+                    getHandler().post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onComplete(result);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * 将已编码的数据原子写入文件
+     *
+     * @param data   the data
+     * @param offset the offset
+     * @param length the length
+     * @param target 目标文件
+     * @param fsync  是否调用fsync
+     * @return the result
+     */
+    public Result write(final byte[] data, final int offset, final int length, File target, boolean fsync) {
+        return write(target, fsync, new Writer() {
+            @Override
+            public boolean writeTo(OutputStream os) throws IOException {
+                os.write(data, offset, length);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * 成功编码的次数
+     *
+     * @return the long
+     */
+    public long getEncodeCount() {
+        return encodeCount.get();
+    }
+
+    /**
+     * 失败的次数
+     *
+     * @return the long
+     */
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * 成功写入的总字节数
+     *
+     * @return the long
+     */
+    public long getTotalBytes() {
+        return totalBytes.get();
+    }
+
+    /**
+     * 成功编码的总耗时，毫秒
+     *
+     * @return the long
+     */
+    public long getTotalEncodeMillis() {
+        return totalEncodeMillis.get();
+    }
+
+    @Override
+    public String toString() {
+        return "BitmapEncoder[encodes=" + encodeCount.get() + ",failures=" + failureCount.get()
+                + ",bytes=" + totalBytes.get() + ",time=" + totalEncodeMillis.get() + "ms]";
+    }
+
+    private synchronized Handler getHandler() {
+        if (handler == null) {
+            handler = new Handler(Looper.getMainLooper());
+        }
+        return handler;
+    }
+
+    private Result write(File target, boolean fsync, Writer writer) {
+        long start = System.nanoTime();
+        File dir = target.getAbsoluteFile().getParentFile();
+        File temp = null;
+        BufferedFileStream os = null;
+        Exception error = null;
+        boolean success = false;
+        long bytes = 0;
+        try {
+            if (dir != null && !dir.exists() && !dir.mkdirs()) {
+                throw new IOException("Cannot create " + dir);
+            }
+            temp = File.createTempFile("." + target.getName() + "-", TEMP_SUFFIX, dir);
+            os = new BufferedFileStream(new FileOutputStream(temp), BUFFER.get());
+            if (!writer.writeTo(os)) {
+                throw new IOException("Failed to encode bitmap.");
+            }
+            os.flush();
+            if (fsync) {
+                os.out.getFD().sync();
+            }
+            bytes = os.count;
+            os.close();
+            os = null;
+            if (!temp.renameTo(target)) {
+                throw new IOException("Cannot rename " + temp + " to " + target);
+            }
+            success = true;
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            IOUtils.closeQuietly(os);
+            if (!success && temp != null) {
+                temp.delete();
+            }
+        }
+        long millis = (System.nanoTime() - start) / 1000000L;
+        if (success) {
+            encodeCount.incrementAndGet();
+            totalBytes.addAndGet(bytes);
+            totalEncodeMillis.addAndGet(millis);
+        } else {
+            failureCount.incrementAndGet();
+            if (error != null) {
+                error.printStackTrace();
+            }
+        }
+        return new Result(target, success, success ? bytes : 0, millis, error);
+    }
+
+    private interface Writer {
+        boolean writeTo(OutputStream os) throws IOException;
+    }
+
+    /**
+     * 使用外部缓冲区并统计字节数的文件输出流
+     */
+    private static final class BufferedFileStream extends OutputStream {
+
+        final FileOutputStream out;
+        private final byte[] buffer;
+        private int position;
+        long count;
+
+        BufferedFileStream(FileOutputStream out, byte[] buffer) {
+            this.out = out;
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (position == buffer.length) {
+                flushBuffer();
+            }
+            buffer[position++] = (byte) b;
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len >= buffer.length) {
+                flushBuffer();
+                out.write(b, off, len);
+            } else {
+                if (len > buffer.length - position) {
+                    flushBuffer();
+                }
+                System.arraycopy(b, off, buffer, position, len);
+                position += len;
+            }
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushBuffer();
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flushBuffer();
+            } finally {
+                out.close();
+            }
+        }
+
+        private void flushBuffer() throws IOException {
+            if (position > 0) {
+                out.write(buffer, 0, position);
+                position = 0;
+            }
+        }
+    }
+}
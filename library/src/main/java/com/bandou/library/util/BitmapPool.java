@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2016 venshine.cn@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bandou.library.util;
+
+import android.graphics.Bitmap;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Bitmap与像素数组复用池
+ * <p>
+ * Bitmap按宽、高、Config分组，int[]按尺寸等级分组（每个2的幂区间分为8级，最多浪费12.5%），
+ * 所有对象共享一个按字节计算的LRU容量，超出时回收最久未使用的对象。
+ * 从池中取出的对象内容未定义，使用完毕后通过put/release归还。
+ * 统计方法的命名与{@link android.util.LruCache}一致。
+ *
+ * @author venshine
+ */
+public class BitmapPool {
+
+    /**
+     * 小于该长度的数组不进入复用池
+     */
+    private static final int MIN_POOLED_LENGTH = 1024;
+
+    private final long maxSize;
+    private long size;
+    private int hitCount;
+    private int missCount;
+    private int putCount;
+    private int evictionCount;
+
+    /**
+     * 按放入顺序排列的所有对象，最先放入的最先回收
+     */
+    private final LinkedHashMap<Entry, Boolean> lru = new LinkedHashMap<Entry, Boolean>();
+    private final Map<Long, LinkedList<Entry>> bitmapGroups = new HashMap<Long, LinkedList<Entry>>();
+    private final Map<Integer, LinkedList<Entry>> pixelGroups = new HashMap<Integer, LinkedList<Entry>>();
+
+    /**
+     * Instantiates a new Bitmap pool.
+     *
+     * @param maxSize 最大字节数
+     */
+    public BitmapPool(long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get a mutable bitmap, the content is undefined.
+     * 获取指定尺寸的可修改Bitmap，池中没有时新建，内容未定义
+     *
+     * @param width  the width
+     * @param height the height
+     * @param config the config
+     * @return the bitmap
+     */
+    public Bitmap getBitmap(int width, int height, Bitmap.Config config) {
+        synchronized (this) {
+            Entry entry = poll(bitmapGroups.get(bitmapKey(width, height, config)));
+            if (entry != null) {
+                hitCount++;
+                return entry.bitmap;
+            }
+            missCount++;
+        }
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * Get a transparent mutable bitmap.
+     * 获取指定尺寸的透明Bitmap，适合作为Canvas绘制目标
+     *
+     * @param width  the width
+     * @param height the height
+     * @param config the config
+     * @return the bitmap
+     */
+    public Bitmap getCleanBitmap(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = getBitmap(width, height, config);
+        bitmap.eraseColor(0);
+        return bitmap;
+    }
+
+    /**
+     * Return a bitmap to the pool, immutable or recycled bitmaps are ignored.
+     * 归还Bitmap，归还后调用方不能再使用该Bitmap
+     *
+     * @param bitmap the bitmap
+     */
+    public void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return;
+        }
+        long bytes = BitmapUtils.getBitmapSize(bitmap);
+        if (bytes > maxSize) {
+            bitmap.recycle();
+            return;
+        }
+        Entry entry = new Entry(bitmapKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig()),
+                bitmap, null, bytes);
+        synchronized (this) {
+            LinkedList<Entry> group = bitmapGroups.get(entry.key);
+            if (group == null) {
+                group = new LinkedList<Entry>();
+                bitmapGroups.put((Long) entry.key, group);
+            }
+            offer(group, entry);
+        }
+    }
+
+    /**
+     * Obtain a pixel buffer whose length is at least minLength, the content is undefined.
+     * 获取长度不小于minLength的像素数组，内容未定义
+     *
+     * @param minLength the min length
+     * @return the int [ ]
+     */
+    public int[] obtainPixels(int minLength) {
+        if (minLength < MIN_POOLED_LENGTH) {
+            return new int[minLength];
+        }
+        int sizeClass = ceilSizeClass(minLength);
+        synchronized (this) {
+            Entry entry = poll(pixelGroups.get(sizeClass));
+            if (entry != null) {
+                hitCount++;
+                return entry.pixels;
+            }
+            missCount++;
+        }
+        return new int[sizeClass];
+    }
+
+    /**
+     * Return a pixel buffer to the pool.
+     * 归还像素数组
+     *
+     * @param pixels the pixels
+     */
+    public void release(int[] pixels) {
+        if (pixels == null || pixels.length < MIN_POOLED_LENGTH) {
+            return;
+        }
+        long bytes = 4L * pixels.length;
+        if (bytes > maxSize) {
+            return;
+        }
+        Integer sizeClass = floorSizeClass(pixels.length);
+        Entry entry = new Entry(sizeClass, null, pixels, bytes);
+        synchronized (this) {
+            LinkedList<Entry> group = pixelGroups.get(sizeClass);
+            if (group == null) {
+                group = new LinkedList<Entry>();
+                pixelGroups.put(sizeClass, group);
+            }
+            offer(group, entry);
+        }
+    }
+
+    /**
+     * Evict objects until the pool is not larger than maxSize.
+     * 回收对象直到池中字节数不超过maxSize，传入0清空复用池
+     *
+     * @param maxSize the max size
+     */
+    public void trimToSize(long maxSize) {
+        synchronized (this) {
+            Iterator<Entry> iterator = lru.keySet().iterator();
+            while (size > maxSize && iterator.hasNext()) {
+                Entry eldest = iterator.next();
+                iterator.remove();
+                Map<?, LinkedList<Entry>> groups = eldest.bitmap != null ? bitmapGroups : pixelGroups;
+                LinkedList<Entry> group = groups.get(eldest.key);
+                group.remove(eldest);
+                if (group.isEmpty()) {
+                    groups.remove(eldest.key);
+                }
+                size -= eldest.bytes;
+                evictionCount++;
+                if (eldest.bitmap != null) {
+                    eldest.bitmap.recycle();
+                }
+            }
+        }
+    }
+
+    /**
+     * Clear the pool.
+     * 清空复用池
+     */
+    public void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * 当前池中对象的总字节数
+     *
+     * @return the long
+     */
+    public synchronized final long size() {
+        return size;
+    }
+
+    /**
+     * 最大字节数
+     *
+     * @return the long
+     */
+    public synchronized final long maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * 从池中取到对象的次数
+     *
+     * @return the int
+     */
+    public synchronized final int hitCount() {
+        return hitCount;
+    }
+
+    /**
+     * 池中没有可用对象而新建的次数
+     *
+     * @return the int
+     */
+    public synchronized final int missCount() {
+        return missCount;
+    }
+
+    /**
+     * 归还对象的次数
+     *
+     * @return the int
+     */
+    public synchronized final int putCount() {
+        return putCount;
+    }
+
+    /**
+     * 因超出容量被回收的对象个数
+     *
+     * @return the int
+     */
+    public synchronized final int evictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized final String toString() {
+        int accesses = hitCount + missCount;
+        int hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
+        return String.format("BitmapPool[size=%d,maxSize=%d,hits=%d,misses=%d,evictions=%d,hitRate=%d%%]",
+                size, maxSize, hitCount, missCount, evictionCount, hitPercent);
+    }
+
+    private Entry poll(LinkedList<Entry> group) {
+        if (group == null || group.isEmpty()) {
+            return null;
+        }
+        Entry entry = group.removeLast();
+        lru.remove(entry);
+        size -= entry.bytes;
+        return entry;
+    }
+
+    private void offer(LinkedList<Entry> group, Entry entry) {
+        group.addLast(entry);
+        lru.put(entry, Boolean.TRUE);
+        size += entry.bytes;
+        putCount++;
+        trimToSize(maxSize);
+    }
+
+    private static Long bitmapKey(int width, int height, Bitmap.Config config) {
+        int ordinal = config == null ? 0 : config.ordinal() + 1;
+        return ((long) width << 36) | ((long) height << 8) | ordinal;
+    }
+
+    /**
+     * 不小于length的最小尺寸等级
+     */
+    static int ceilSizeClass(int length) {
+        int step = Math.max(1, Integer.highestOneBit(length) >> 3);
+        long sizeClass = ((long) length + step - 1) / step * step;
+        return sizeClass > Integer.MAX_VALUE ? length : (int) sizeClass;
+    }
+
+    /**
+     * 不大于length的最大尺寸等级
+     */
+    static int floorSizeClass(int length) {
+        int step = Math.max(1, Integer.highestOneBit(length) >> 3);
+        return length / step * step;
+    }
+
+    private static final class Entry {
+        final Object key;
+        final Bitmap bitmap;
+        final int[] pixels;
+        final long bytes;
+
+        Entry(Object key, Bitmap bitmap, int[] pixels, long bytes) {
+            this.key = key;
+            this.bitmap = bitmap;
+            this.pixels = pixels;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -15,6 +15,7 @@
  */
 package com.bandou.library.util;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.*;
@@ -24,6 +25,17 @@ import android.media.ExifInterface;
 import android.os.Build;
 import android.view.View;
 
+import com.bandou.library.image.Convolution;
+import com.bandou.library.image.FilterPipeline;
+import com.bandou.library.image.GaussianBlur;
+import com.bandou.library.image.ImageStatistics;
+import com.bandou.library.image.Kernel;
+import com.bandou.library.image.LutFilters;
+import com.bandou.library.image.PixelEngine;
+import com.bandou.library.image.PixelFilters;
+import com.bandou.library.image.RadialFilters;
+import com.bandou.library.image.Resampler;
+
 import java.io.*;
 
 /**
@@ -33,6 +45,16 @@ import java.io.*;
  */
 public class BitmapUtils {
 
+    /**
+     * 保存图片共用的编码器，写入临时文件后重命名，失败时不会留下不完整的文件
+     */
+    private static final BitmapEncoder ENCODER = new BitmapEncoder();
+
+    /**
+     * 同步截图，只在主线程使用
+     */
+    private static final ViewCapture CAPTURE = new ViewCapture(null, null);
+
     /**
      * Convert resId to drawable
      *
@@ -77,17 +99,7 @@ public class BitmapUtils {
      * @return boolean
      */
     public static boolean bitmapToFile(Bitmap bitmap, Bitmap.CompressFormat format, int quality, File imageFile) {
-        OutputStream os;
-        try {
-            os = new FileOutputStream(imageFile);
-            boolean isOK = bitmap.compress(format, quality, os);
-            os.flush();
-            os.close();
-            return isOK;
-        } catch (Exception e) {
-            e.printStackTrace();
-            return false;
-        }
+        return ENCODER.encode(bitmap, format, quality, imageFile, false).success;
     }
 
     /**
@@ -104,61 +116,130 @@ public class BitmapUtils {
 
     /**
      * take a screenshot
-     * 控件截图
+     * 控件截图，需在主线程调用
      *
      * @param decorView the decor view
      * @param filePath  the file path
      * @return boolean boolean
      */
     public static boolean captureView(View decorView, String filePath) {
-        decorView.setDrawingCacheEnabled(true);
-        decorView.buildDrawingCache();
-        Bitmap bitmap = decorView.getDrawingCache();
-        File imagePath = new File(filePath);
-        FileOutputStream fos = null;
-        try {
-            fos = new FileOutputStream(imagePath);
-            bitmap.compress(Bitmap.CompressFormat.JPEG, 100, fos);
-            fos.flush();
-            return true;
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                fos.close();
-                if (null != bitmap) {
-                    bitmap.recycle();
-                    bitmap = null;
-                }
-            } catch (Exception e) {
-            }
-            decorView.destroyDrawingCache();
-            decorView.setDrawingCacheEnabled(false);
-        }
-        return false;
+        return captureView(decorView, 1, filePath);
+    }
+
+    /**
+     * 缩放截图，直接按比例绘制，不生成原尺寸的中间图片，需在主线程调用。
+     * 不阻塞主线程编码可使用{@link ViewCapture#captureToFile}
+     *
+     * @param decorView the decor view
+     * @param scale     缩放比例，如0.5为一半分辨率
+     * @param filePath  the file path
+     * @return boolean
+     */
+    public static boolean captureView(View decorView, float scale, String filePath) {
+        BitmapEncoder.Result result = CAPTURE.captureToFileSync(decorView, scale, Bitmap.CompressFormat.JPEG, 100,
+                new File(filePath));
+        return result != null && result.success;
     }
 
     /**
      * Compress bitmap
-     * 通过改变质量压缩图片
+     * 通过改变质量压缩图片，在[0, quality]之间二分查找不超过maxFileSize的最高质量
      *
      * @param bmp         源Bitmap
-     * @param quality     the quality
+     * @param quality     最高质量
      * @param maxFileSize 最大文件大小（单位kb)
      * @return 压缩后的Bitmap bitmap
      */
     public static Bitmap compressBitmapByQuality(Bitmap bmp, int quality, int maxFileSize) {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        bmp.compress(Bitmap.CompressFormat.JPEG, quality, baos);// 质量压缩方法，这里100表示不压缩，把压缩后的数据存放到baos中
-        int options = quality;
-        while (baos.toByteArray().length / 1024 > maxFileSize) { // 循环判断如果压缩后图片是否大于100kb,大于继续压缩
-            baos.reset();// 重置baos即清空baos
-            bmp.compress(Bitmap.CompressFormat.JPEG, options, baos);// 这里压缩options%，把压缩后的数据存放到baos中
-            options -= 10;// 每次都减少10
+        EncodeBuffer buffer = new EncodeBuffer();
+        searchQuality(bmp, Bitmap.CompressFormat.JPEG, quality, maxFileSize * 1024L, buffer);
+        return BitmapFactory.decodeByteArray(buffer.getBuffer(), 0, buffer.size());
+    }
+
+    /**
+     * Compress bitmap to at most maxBytes, return the encoded bytes.
+     * 最高质量满足限制时只编码一次，否则二分查找满足限制的最高质量，约8次编码，返回编码后的数据而不是重新解码的Bitmap
+     *
+     * @param bmp      源Bitmap
+     * @param format   图片格式，PNG忽略质量参数只编码一次
+     * @param maxBytes 最大字节数
+     * @return 编码后的数据，质量为0仍超出限制时返回质量为0的结果
+     */
+    public static byte[] compressToSize(Bitmap bmp, Bitmap.CompressFormat format, long maxBytes) {
+        EncodeBuffer buffer = new EncodeBuffer();
+        searchQuality(bmp, format, 100, maxBytes, buffer);
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Compress bitmap to at most maxBytes and write it to the file.
+     * 按大小限制压缩并直接写入文件
+     *
+     * @param bmp       源Bitmap
+     * @param format    图片格式
+     * @param maxBytes  最大字节数
+     * @param imageFile the image file
+     * @return 实际使用的质量，写入失败返回-1
+     */
+    public static int compressToFile(Bitmap bmp, Bitmap.CompressFormat format, long maxBytes, File imageFile) {
+        EncodeBuffer buffer = new EncodeBuffer();
+        int quality = searchQuality(bmp, format, 100, maxBytes, buffer);
+        return ENCODER.write(buffer.getBuffer(), 0, buffer.size(), imageFile, false).success ? quality : -1;
+    }
+
+    /**
+     * 先按maxQuality编码，满足大小限制时直接返回，否则在[0, maxQuality)区间二分查找满足限制的最高质量，
+     * 结束时buffer中为该质量的编码结果
+     *
+     * @return 使用的质量
+     */
+    private static int searchQuality(Bitmap bmp, Bitmap.CompressFormat format, int maxQuality,
+                                     long maxBytes, EncodeBuffer buffer) {
+        int high = Math.max(0, Math.min(100, maxQuality));
+        // 多数情况下最高质量已满足限制，先编码一次，满足时直接返回；PNG忽略质量，只编码这一次
+        buffer.reset();
+        bmp.compress(format, high, buffer);
+        if (format == Bitmap.CompressFormat.PNG || buffer.size() <= maxBytes) {
+            return high;
+        }
+        int encoded = high;
+        high--;
+        int low = 0;
+        int best = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            buffer.reset();
+            bmp.compress(format, mid, buffer);
+            encoded = mid;
+            if (buffer.size() <= maxBytes) {
+                best = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (best < 0) {
+            best = 0;
+        }
+        if (encoded != best) {
+            buffer.reset();
+            bmp.compress(format, best, buffer);
+        }
+        return best;
+    }
+
+    /**
+     * 可直接访问内部数组的ByteArrayOutputStream，避免toByteArray复制
+     */
+    static final class EncodeBuffer extends ByteArrayOutputStream {
+
+        EncodeBuffer() {
+            super(32 * 1024);
+        }
+
+        byte[] getBuffer() {
+            return buf;
         }
-        ByteArrayInputStream isBm = new ByteArrayInputStream(baos.toByteArray());// 把压缩后的数据baos存放到ByteArrayInputStream中
-        Bitmap bitmap = BitmapFactory.decodeStream(isBm, null, null);// 把ByteArrayInputStream数据生成图片
-        return bitmap;
     }
 
     /**
@@ -176,17 +257,15 @@ public class BitmapUtils {
         sIconWidth = sIconHeight = (int) resources
                 .getDimension(android.R.dimen.app_icon_size);
 
-        final Paint sPaint = new Paint();
-        final Rect sBounds = new Rect();
-        final Rect sOldBounds = new Rect();
-        Canvas sCanvas = new Canvas();
+        // Canvas、Paint与Rect每个线程复用一份
+        final ThumbnailCanvas thumbnailCanvas = ThumbnailCanvas.get();
+        final Paint sPaint = thumbnailCanvas.paint;
+        final Rect sBounds = thumbnailCanvas.dstBounds;
+        final Rect sOldBounds = thumbnailCanvas.srcBounds;
 
         int width = sIconWidth;
         int height = sIconHeight;
 
-        sCanvas.setDrawFilter(new PaintFlagsDrawFilter(Paint.DITHER_FLAG,
-                Paint.FILTER_BITMAP_FLAG));
-
         final int bitmapWidth = bitmap.getWidth();
         final int bitmapHeight = bitmap.getHeight();
 
@@ -204,27 +283,23 @@ public class BitmapUtils {
                         .getConfig() : Bitmap.Config.ARGB_8888;
                 final Bitmap thumb = Bitmap.createBitmap(sIconWidth,
                         sIconHeight, c);
-                final Canvas canvas = sCanvas;
+                final Canvas canvas = thumbnailCanvas.begin(thumb);
                 final Paint paint = sPaint;
-                canvas.setBitmap(thumb);
-                paint.setDither(false);
-                paint.setFilterBitmap(true);
                 sBounds.set((sIconWidth - width) / 2,
                         (sIconHeight - height) / 2, width, height);
                 sOldBounds.set(0, 0, bitmapWidth, bitmapHeight);
                 canvas.drawBitmap(bitmap, sOldBounds, sBounds, paint);
+                thumbnailCanvas.end();
                 return thumb;
             } else if (bitmapWidth < width || bitmapHeight < height) {
                 final Bitmap.Config c = Bitmap.Config.ARGB_8888;
                 final Bitmap thumb = Bitmap.createBitmap(sIconWidth,
                         sIconHeight, c);
-                final Canvas canvas = sCanvas;
+                final Canvas canvas = thumbnailCanvas.begin(thumb);
                 final Paint paint = sPaint;
-                canvas.setBitmap(thumb);
-                paint.setDither(false);
-                paint.setFilterBitmap(true);
                 canvas.drawBitmap(bitmap, (sIconWidth - bitmapWidth) / 2,
                         (sIconHeight - bitmapHeight) / 2, paint);
+                thumbnailCanvas.end();
                 return thumb;
             }
         }
@@ -234,33 +309,457 @@ public class BitmapUtils {
 
     /**
      * 读取图片属性：图片被旋转的角度
+     * 只扫描JPEG头部的EXIF方向标签，不创建ExifInterface
      *
      * @param path 图片绝对路径
      * @return 旋转的角度 image degree
+     * @see ExifUtils#readOrientation(String)
      */
     public static int getImageDegree(String path) {
-        int degree = 0;
+        int orientation = ExifUtils.readOrientation(path);
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                return 90;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                return 180;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Get the bytes used to store the bitmap's pixels.
+     * 获取Bitmap像素占用的字节数
+     *
+     * @param bitmap the bitmap
+     * @return 字节数
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public static int getBitmapSize(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1) {
+            return bitmap.getByteCount();
+        }
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * ====================================================
+     *                  图片解码
+     * ====================================================
+     */
+    /**
+     * Decode file to fit in reqWidth x reqHeight.
+     * 按目标尺寸解码图片：先只解码边界，按2的幂计算inSampleSize采样解码，再精确缩放到目标尺寸。
+     * 采样后的图片每边小于目标的2倍，峰值内存不超过输出图片的5倍
+     *
+     * @param filePath  the file path
+     * @param reqWidth  目标宽度，小于等于0时不限制
+     * @param reqHeight 目标高度，小于等于0时不限制
+     * @return 等比缩放到目标尺寸以内的图片，解码失败返回null
+     */
+    public static Bitmap decodeSampled(String filePath, int reqWidth, int reqHeight) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(filePath, options);
+        if (!prepareSampledOptions(options, reqWidth, reqHeight)) {
+            return null;
+        }
+        return scaleToFit(BitmapFactory.decodeFile(filePath, options), reqWidth, reqHeight);
+    }
+
+    /**
+     * Decode file to fit in reqWidth x reqHeight and apply the EXIF orientation.
+     * 按目标尺寸解码图片并按EXIF方向旋转、镜像，缩放与旋转在同一次变换中完成，只生成一张结果图片
+     *
+     * @param filePath  the file path
+     * @param reqWidth  旋转后的目标宽度，小于等于0时不限制
+     * @param reqHeight 旋转后的目标高度，小于等于0时不限制
+     * @return 方向正确且等比缩放到目标尺寸以内的图片，解码失败返回null
+     */
+    public static Bitmap decodeSampledOriented(String filePath, int reqWidth, int reqHeight) {
+        int orientation = ExifUtils.readOrientation(filePath);
+        // 目标尺寸针对旋转后的图片，原图方向上需要交换宽高
+        boolean swapped = ExifUtils.isSwapped(orientation);
+        int sampleWidth = swapped ? reqHeight : reqWidth;
+        int sampleHeight = swapped ? reqWidth : reqHeight;
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(filePath, options);
+        if (!prepareSampledOptions(options, sampleWidth, sampleHeight)) {
+            return null;
+        }
+        return transformToFit(BitmapFactory.decodeFile(filePath, options), sampleWidth, sampleHeight,
+                orientation);
+    }
+
+    /**
+     * Decode file to fit in reqWidth x reqHeight and apply the EXIF orientation.
+     *
+     * @param file      the file
+     * @param reqWidth  旋转后的目标宽度，小于等于0时不限制
+     * @param reqHeight 旋转后的目标高度，小于等于0时不限制
+     * @return 方向正确且等比缩放到目标尺寸以内的图片，解码失败返回null
+     * @see #decodeSampledOriented(String, int, int)
+     */
+    public static Bitmap decodeSampledOriented(File file, int reqWidth, int reqHeight) {
+        return file == null ? null : decodeSampledOriented(file.getAbsolutePath(), reqWidth, reqHeight);
+    }
+
+    /**
+     * Decode file to fit in reqWidth x reqHeight.
+     *
+     * @param file      the file
+     * @param reqWidth  目标宽度，小于等于0时不限制
+     * @param reqHeight 目标高度，小于等于0时不限制
+     * @return 等比缩放到目标尺寸以内的图片，解码失败返回null
+     * @see #decodeSampled(String, int, int)
+     */
+    public static Bitmap decodeSampled(File file, int reqWidth, int reqHeight) {
+        return file == null ? null : decodeSampled(file.getAbsolutePath(), reqWidth, reqHeight);
+    }
+
+    /**
+     * Decode bytes to fit in reqWidth x reqHeight.
+     *
+     * @param data      the data
+     * @param reqWidth  目标宽度，小于等于0时不限制
+     * @param reqHeight 目标高度，小于等于0时不限制
+     * @return 等比缩放到目标尺寸以内的图片，解码失败返回null
+     * @see #decodeSampled(String, int, int)
+     */
+    public static Bitmap decodeSampled(byte[] data, int reqWidth, int reqHeight) {
+        if (data == null) {
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (!prepareSampledOptions(options, reqWidth, reqHeight)) {
+            return null;
+        }
+        return scaleToFit(BitmapFactory.decodeByteArray(data, 0, data.length, options), reqWidth, reqHeight);
+    }
+
+    /**
+     * Decode stream to fit in reqWidth x reqHeight, the stream is not closed.
+     * 解码输入流，读取尺寸时只在内存中保留前64KB用于重放，头部超出64KB时转存到临时文件再解码，调用方负责关闭流
+     *
+     * @param is        the input stream
+     * @param reqWidth  目标宽度，小于等于0时不限制
+     * @param reqHeight 目标高度，小于等于0时不限制
+     * @return 等比缩放到目标尺寸以内的图片，解码失败返回null
+     * @see #decodeSampled(String, int, int)
+     */
+    public static Bitmap decodeSampled(InputStream is, int reqWidth, int reqHeight) {
+        if (is == null) {
+            return null;
+        }
+        HeaderSpool spool = new HeaderSpool(is, HEADER_LIMIT);
         try {
-            ExifInterface exifInterface = new ExifInterface(path);
-            int orientation = exifInterface.getAttributeInt(
-                    ExifInterface.TAG_ORIENTATION,
-                    ExifInterface.ORIENTATION_NORMAL);
-            switch (orientation) {
-                case ExifInterface.ORIENTATION_ROTATE_90:
-                    degree = 90;
-                    break;
-                case ExifInterface.ORIENTATION_ROTATE_180:
-                    degree = 180;
-                    break;
-                case ExifInterface.ORIENTATION_ROTATE_270:
-                    degree = 270;
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeStream(spool, null, options);
+            if (!prepareSampledOptions(options, reqWidth, reqHeight)) {
+                return null;
+            }
+            Bitmap bitmap;
+            if (spool.isSpilled()) {
+                bitmap = BitmapFactory.decodeFile(spool.drain().getAbsolutePath(), options);
+            } else {
+                bitmap = BitmapFactory.decodeStream(spool.replay(), null, options);
+            }
+            return scaleToFit(bitmap, reqWidth, reqHeight);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            spool.release();
+        }
+    }
+
+    /**
+     * 读取尺寸时在内存中保留的最大字节数，足够容纳常见格式的文件头
+     */
+    private static final int HEADER_LIMIT = 64 * 1024;
+
+    /**
+     * 记录已读字节以便重放的输入流，不超过limit时保存在内存中，超出后转存到临时文件，
+     * 避免为了reset而把整个编码数据缓存在内存中
+     */
+    private static final class HeaderSpool extends FilterInputStream {
+
+        private final int limit;
+        private final byte[] single = new byte[1];
+        private byte[] head;
+        private int count;
+        private File file;
+        private OutputStream out;
+
+        HeaderSpool(InputStream in, int limit) {
+            super(in);
+            this.limit = limit;
+            this.head = new byte[Math.min(limit, 8 * 1024)];
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                single[0] = (byte) b;
+                record(single, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = in.read(buffer, offset, length);
+            if (n > 0) {
+                record(buffer, offset, n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // 跳过的字节也要记录，重放时才能保持偏移一致
+            byte[] scratch = new byte[(int) Math.min(n, 4096)];
+            long skipped = 0;
+            while (skipped < n) {
+                int r = read(scratch, 0, (int) Math.min(scratch.length, n - skipped));
+                if (r < 0) {
                     break;
+                }
+                skipped += r;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+            // 不关闭源流，由调用方负责
+        }
+
+        boolean isSpilled() {
+            return file != null;
+        }
+
+        /**
+         * 内存中的数据后接源流的剩余部分
+         */
+        InputStream replay() {
+            return new SequenceInputStream(new ByteArrayInputStream(head, 0, count), in);
+        }
+
+        /**
+         * 把源流剩余部分写入临时文件
+         *
+         * @return 包含完整数据的临时文件
+         */
+        File drain() throws IOException {
+            byte[] buffer = new byte[16 * 1024];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            out.close();
+            out = null;
+            return file;
+        }
+
+        /**
+         * 关闭并删除临时文件
+         */
+        void release() {
+            IOUtils.closeQuietly(out);
+            out = null;
+            if (file != null && !file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+
+        private void record(byte[] buffer, int offset, int length) throws IOException {
+            if (out == null && file == null) {
+                if (count + length <= limit) {
+                    if (count + length > head.length) {
+                        byte[] grown = new byte[Math.min(limit, Math.max(head.length * 2, count + length))];
+                        System.arraycopy(head, 0, grown, 0, count);
+                        head = grown;
+                    }
+                    System.arraycopy(buffer, offset, head, count, length);
+                    count += length;
+                    return;
+                }
+                file = File.createTempFile("decode", ".tmp");
+                out = new BufferedOutputStream(new FileOutputStream(file), 16 * 1024);
+                out.write(head, 0, count);
+                head = null;
+                count = 0;
             }
+            out.write(buffer, offset, length);
+        }
+    }
+
+    /**
+     * Decode a region of the image without decoding the whole image.
+     * 只解码图片的指定区域，并按目标尺寸采样、缩放
+     *
+     * @param filePath  the file path
+     * @param region    解码区域（原图坐标）
+     * @param reqWidth  目标宽度，小于等于0时不限制
+     * @param reqHeight 目标高度，小于等于0时不限制
+     * @return 区域图片，解码失败或系统版本低于2.3.3时返回null
+     */
+    public static Bitmap decodeRegion(String filePath, Rect region, int reqWidth, int reqHeight) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.GINGERBREAD_MR1) {
+            return null;
+        }
+        BitmapRegionDecoder decoder = null;
+        try {
+            decoder = BitmapRegionDecoder.newInstance(filePath, false);
+            return decodeRegion(decoder, region, reqWidth, reqHeight);
         } catch (IOException e) {
             e.printStackTrace();
+            return null;
+        } finally {
+            if (decoder != null) {
+                decoder.recycle();
+            }
+        }
+    }
+
+    /**
+     * Decode a region with an opened decoder, reuse the decoder to decode tiles of a large image.
+     * 使用已打开的解码器解码区域，对大图分块解码时复用同一个解码器
+     *
+     * @param decoder   the decoder
+     * @param region    解码区域（原图坐标），超出原图的部分会被裁掉
+     * @param reqWidth  目标宽度，小于等于0时不限制
+     * @param reqHeight 目标高度，小于等于0时不限制
+     * @return 区域图片，区域与原图不相交时返回null
+     */
+    @TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+    public static Bitmap decodeRegion(BitmapRegionDecoder decoder, Rect region, int reqWidth, int reqHeight) {
+        Rect rect = new Rect(0, 0, decoder.getWidth(), decoder.getHeight());
+        if (region != null && !rect.intersect(region)) {
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.outWidth = rect.width();
+        options.outHeight = rect.height();
+        if (!prepareSampledOptions(options, reqWidth, reqHeight)) {
+            return null;
+        }
+        return scaleToFit(decoder.decodeRegion(rect, options), reqWidth, reqHeight);
+    }
+
+    /**
+     * Calculate the largest power-of-two sample size that keeps the image not smaller than the target.
+     * 计算inSampleSize：2的幂，并保证采样后的图片不小于等比缩放后的目标尺寸
+     *
+     * @param width     原图宽度
+     * @param height    原图高度
+     * @param reqWidth  目标宽度，小于等于0时不限制
+     * @param reqHeight 目标高度，小于等于0时不限制
+     * @return the int
+     */
+    public static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        float ratio = fitRatio(width, height, reqWidth, reqHeight);
+        if (ratio >= 1) {
+            return inSampleSize;
+        }
+        while (inSampleSize * 2 * ratio <= 1) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * 根据边界解码结果设置采样参数
+     *
+     * @return 边界解码是否成功
+     */
+    private static boolean prepareSampledOptions(BitmapFactory.Options options, int reqWidth, int reqHeight) {
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return false;
+        }
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+        options.inJustDecodeBounds = false;
+        return true;
+    }
+
+    /**
+     * 等比缩放到目标尺寸以内，不放大，缩放后回收采样图片
+     */
+    private static Bitmap scaleToFit(Bitmap sampled, int reqWidth, int reqHeight) {
+        if (sampled == null) {
+            return null;
+        }
+        int width = sampled.getWidth();
+        int height = sampled.getHeight();
+        float ratio = fitRatio(width, height, reqWidth, reqHeight);
+        if (ratio >= 1) {
+            return sampled;
+        }
+        int dstWidth = Math.max(1, Math.round(width * ratio));
+        int dstHeight = Math.max(1, Math.round(height * ratio));
+        Bitmap scaled = Bitmap.createScaledBitmap(sampled, dstWidth, dstHeight, true);
+        if (scaled != sampled) {
+            sampled.recycle();
+        }
+        return scaled;
+    }
+
+    /**
+     * 缩放到目标尺寸以内并应用EXIF方向，只创建一张结果图片，完成后回收采样图片
+     */
+    private static Bitmap transformToFit(Bitmap sampled, int reqWidth, int reqHeight, int orientation) {
+        if (sampled == null) {
+            return null;
+        }
+        int width = sampled.getWidth();
+        int height = sampled.getHeight();
+        float ratio = fitRatio(width, height, reqWidth, reqHeight);
+        if (ratio >= 1 && orientation <= ExifInterface.ORIENTATION_NORMAL) {
+            return sampled;
+        }
+        Matrix matrix = new Matrix();
+        if (ratio < 1) {
+            matrix.setScale(ratio, ratio);
         }
-        return degree;
+        ExifUtils.postOrientation(matrix, orientation);
+        Bitmap transformed = Bitmap.createBitmap(sampled, 0, 0, width, height, matrix, true);
+        if (transformed != sampled) {
+            sampled.recycle();
+        }
+        return transformed;
+    }
+
+    /**
+     * 等比缩放到目标尺寸以内的缩放比例
+     */
+    private static float fitRatio(int width, int height, int reqWidth, int reqHeight) {
+        float ratio = 1f;
+        if (reqWidth > 0) {
+            ratio = Math.min(ratio, (float) reqWidth / width);
+        }
+        if (reqHeight > 0) {
+            ratio = Math.min(ratio, (float) reqHeight / height);
+        }
+        return ratio;
     }
+
     /**
      * ====================================================
      *                  图片基本效果处理
@@ -317,6 +816,45 @@ public class BitmapUtils {
         return scale(src, scale, scale);
     }
 
+    /**
+     * 缩放到指定尺寸，使用纯Java重采样，大倍数缩小不会产生锯齿。
+     * 需要在Java堆上分配原图与结果的像素数组，内存较紧张时使用{@link #scale(Bitmap, float, float)}
+     *
+     * @param src    the src
+     * @param width  目标宽度
+     * @param height 目标高度
+     * @param filter Resampler.NEAREST、BILINEAR、AREA或LANCZOS3
+     * @return bitmap
+     */
+    public static Bitmap resize(Bitmap src, int width, int height, int filter) {
+        return resize(src, width, height, filter, null);
+    }
+
+    /**
+     * 缩放到指定尺寸，结果图片与像素数组从复用池获取。RGB_565的图片结果仍为RGB_565，其余为ARGB_8888
+     *
+     * @param src    the src
+     * @param width  目标宽度
+     * @param height 目标高度
+     * @param filter Resampler.NEAREST、BILINEAR、AREA或LANCZOS3
+     * @param pool   复用池，为null时新建
+     * @return bitmap
+     */
+    public static Bitmap resize(Bitmap src, int width, int height, int filter, BitmapPool pool) {
+        int srcWidth = src.getWidth();
+        int srcHeight = src.getHeight();
+        int[] pixels = obtainPixels(pool, srcWidth * srcHeight);
+        src.getPixels(pixels, 0, srcWidth, 0, 0, srcWidth, srcHeight);
+        int[] out = obtainPixels(pool, width * height);
+        Resampler.resize(pixels, srcWidth, srcHeight, out, width, height, filter, src.hasAlpha());
+        Bitmap.Config config = src.getConfig() == Bitmap.Config.RGB_565 ? Bitmap.Config.RGB_565
+                : Bitmap.Config.ARGB_8888;
+        Bitmap newBitmap = obtainBitmap(pool, width, height, config);
+        newBitmap.setPixels(out, 0, width, 0, 0, width, height);
+        releasePixels(pool, pixels, out);
+        return newBitmap;
+    }
+
     /**
      * 最大边等比例缩放图片
      *
@@ -438,25 +976,7 @@ public class BitmapUtils {
      * @return bitmap
      */
     public static Bitmap createRoundedCornerBitmap(Bitmap bitmap, float roundPx) {
-
-        Bitmap output = Bitmap.createBitmap(bitmap.getWidth(),
-                bitmap.getHeight(), Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(output);
-
-        final int color = 0xff424242;
-        final Paint paint = new Paint();
-        final Rect rect = new Rect(0, 0, bitmap.getWidth(), bitmap.getHeight());
-        final RectF rectF = new RectF(rect);
-
-        paint.setAntiAlias(true);
-        canvas.drawARGB(0, 0, 0, 0);
-        paint.setColor(color);
-        canvas.drawRoundRect(rectF, roundPx, roundPx, paint);
-
-        paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC_IN));
-        canvas.drawBitmap(bitmap, rect, rect, paint);
-
-        return output;
+        return new BitmapCompositor().setCornerRadius(roundPx).compose(bitmap);
     }
 
     /**
@@ -471,22 +991,8 @@ public class BitmapUtils {
         if (src == null) {
             return null;
         }
-        int w = src.getWidth();
-        int h = src.getHeight();
-        int ww = watermark.getWidth();
-        int wh = watermark.getHeight();
-        // create the new blank bitmap
-        Bitmap newb = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);// 创建一个新的和SRC长度宽度一样的位图
-        Canvas cv = new Canvas(newb);
-        // draw src into
-        cv.drawBitmap(src, 0, 0, null);// 在 0，0坐标开始画入src
-        // draw watermark into
-        cv.drawBitmap(watermark, w - ww + 5, h - wh + 5, null);// 在src的右下角画入水印
-        // save all clip
-        cv.save(Canvas.ALL_SAVE_FLAG);// 保存
-        // store
-        cv.restore();// 存储
-        return newb;
+        // 水印右下角超出原图5像素
+        return new BitmapCompositor().setWatermark(watermark, -5).compose(src);
     }
 
     /**
@@ -496,38 +1002,7 @@ public class BitmapUtils {
      * @return 带倒影的Bitmap bitmap
      */
     public static Bitmap createReflectionBitmap(Bitmap bitmap) {
-        final int reflectionGap = 4;
-        int width = bitmap.getWidth();
-        int height = bitmap.getHeight();
-
-        Matrix matrix = new Matrix();
-        matrix.preScale(1, -1);
-
-        Bitmap reflectionImage = Bitmap.createBitmap(bitmap, 0, height / 2,
-                width, height / 2, matrix, false);
-
-        Bitmap bitmapWithReflection = Bitmap.createBitmap(width,
-                (height + height / 2), Bitmap.Config.ARGB_8888);
-
-        Canvas canvas = new Canvas(bitmapWithReflection);
-        canvas.drawBitmap(bitmap, 0, 0, null);
-        Paint deafalutPaint = new Paint();
-        canvas.drawRect(0, height, width, height + reflectionGap, deafalutPaint);
-
-        canvas.drawBitmap(reflectionImage, 0, height + reflectionGap, null);
-
-        Paint paint = new Paint();
-        LinearGradient shader = new LinearGradient(0, bitmap.getHeight(), 0,
-                bitmapWithReflection.getHeight() + reflectionGap, 0x70ffffff,
-                0x00ffffff, Shader.TileMode.CLAMP);
-        paint.setShader(shader);
-        // Set the Transfer mode to be porter duff and destination in
-        paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_IN));
-        // Draw a rectangle using the paint with our linear gradient
-        canvas.drawRect(0, height, width, bitmapWithReflection.getHeight()
-                + reflectionGap, paint);
-
-        return bitmapWithReflection;
+        return new BitmapCompositor().setReflection(true).compose(bitmap);
     }
 
     /**
@@ -537,55 +1012,47 @@ public class BitmapUtils {
      * @return 返回转换好的位图 bitmap
      */
     public static Bitmap convertGreyImg(Bitmap img) {
-        int width = img.getWidth(); // 获取位图的宽
-        int height = img.getHeight(); // 获取位图的高
-
-        int[] pixels = new int[width * height]; // 通过位图的大小创建像素点数组
-
-        img.getPixels(pixels, 0, width, 0, 0, width, height);
-        int alpha = 0xFF << 24;
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                int grey = pixels[width * i + j];
-
-                int red = ((grey & 0x00FF0000) >> 16);
-                int green = ((grey & 0x0000FF00) >> 8);
-                int blue = (grey & 0x000000FF);
-
-                grey = (int) ((float) red * 0.3 + (float) green * 0.59 + (float) blue * 0.11);
-                grey = alpha | (grey << 16) | (grey << 8) | grey;
-                pixels[width * i + j] = grey;
-            }
-        }
-        Bitmap result = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
-        result.setPixels(pixels, 0, width, 0, 0, width, height);
-        return result;
+        return convertGreyImg(img, null);
     }
 
     /**
-     * 饱和度处理
+     * 将彩色图转换为灰度图，结果图片与像素数组从复用池获取
      *
-     * @param bitmap          原图
+     * @param img  源Bitmap
+     * @param pool 复用池，为null时新建
+     * @return bitmap
+     */
+    public static Bitmap convertGreyImg(Bitmap img, BitmapPool pool) {
+        return applyFilter(img, PixelFilters.GREY, true, pool);
+    }
+
+    /**
+     * 饱和度处理
+     *
+     * @param bitmap          原图
      * @param saturationValue 新的饱和度值
      * @return 改变了饱和度值之后的图片 bitmap
      */
     public static Bitmap saturation(Bitmap bitmap, int saturationValue) {
+        return saturation(bitmap, saturationValue, null);
+    }
+
+    /**
+     * 饱和度处理，结果图片从复用池获取
+     *
+     * @param bitmap          原图
+     * @param saturationValue 新的饱和度值
+     * @param pool            复用池，为null时新建
+     * @return 改变了饱和度值之后的图片 bitmap
+     */
+    public static Bitmap saturation(Bitmap bitmap, int saturationValue, BitmapPool pool) {
         // 计算出符合要求的饱和度值
         float newSaturationValue = saturationValue * 1.0F / 127;
         // 创建一个颜色矩阵
         ColorMatrix saturationColorMatrix = new ColorMatrix();
         // 设置饱和度值
         saturationColorMatrix.setSaturation(newSaturationValue);
-        // 创建一个画笔并设置其颜色过滤器
-        Paint paint = new Paint();
-        paint.setColorFilter(new ColorMatrixColorFilter(saturationColorMatrix));
-        // 创建一个新的图片并创建画布
-        Bitmap newBitmap = Bitmap.createBitmap(bitmap.getWidth(),
-                bitmap.getHeight(), Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(newBitmap);
-        // 将原图使用给定的画笔画到画布上
-        canvas.drawBitmap(bitmap, 0, 0, paint);
-        return newBitmap;
+        return applyColorMatrix(bitmap, saturationColorMatrix, pool);
     }
 
     /**
@@ -596,22 +1063,25 @@ public class BitmapUtils {
      * @return 改变了亮度值之后的图片 bitmap
      */
     public static Bitmap lum(Bitmap bitmap, int lumValue) {
+        return lum(bitmap, lumValue, null);
+    }
+
+    /**
+     * 亮度处理，结果图片从复用池获取
+     *
+     * @param bitmap   原图
+     * @param lumValue 新的亮度值
+     * @param pool     复用池，为null时新建
+     * @return 改变了亮度值之后的图片 bitmap
+     */
+    public static Bitmap lum(Bitmap bitmap, int lumValue, BitmapPool pool) {
         // 计算出符合要求的亮度值
         float newlumValue = lumValue * 1.0F / 127;
         // 创建一个颜色矩阵
         ColorMatrix lumColorMatrix = new ColorMatrix();
         // 设置亮度值
         lumColorMatrix.setScale(newlumValue, newlumValue, newlumValue, 1);
-        // 创建一个画笔并设置其颜色过滤器
-        Paint paint = new Paint();
-        paint.setColorFilter(new ColorMatrixColorFilter(lumColorMatrix));
-        // 创建一个新的图片并创建画布
-        Bitmap newBitmap = Bitmap.createBitmap(bitmap.getWidth(),
-                bitmap.getHeight(), Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(newBitmap);
-        // 将原图使用给定的画笔画到画布上
-        canvas.drawBitmap(bitmap, 0, 0, paint);
-        return newBitmap;
+        return applyColorMatrix(bitmap, lumColorMatrix, pool);
     }
 
     /**
@@ -622,6 +1092,18 @@ public class BitmapUtils {
      * @return 改变了色相值之后的图片 bitmap
      */
     public static Bitmap hue(Bitmap bitmap, int hueValue) {
+        return hue(bitmap, hueValue, null);
+    }
+
+    /**
+     * 色相处理，结果图片从复用池获取
+     *
+     * @param bitmap   原图
+     * @param hueValue 新的色相值
+     * @param pool     复用池，为null时新建
+     * @return 改变了色相值之后的图片 bitmap
+     */
+    public static Bitmap hue(Bitmap bitmap, int hueValue, BitmapPool pool) {
         // 计算出符合要求的色相值
         float newHueValue = (hueValue - 127) * 1.0F / 127 * 180;
         // 创建一个颜色矩阵
@@ -632,16 +1114,7 @@ public class BitmapUtils {
         hueColorMatrix.setRotate(1, newHueValue);
         // 控制让蓝色区在色轮上旋转的角度
         hueColorMatrix.setRotate(2, newHueValue);
-        // 创建一个画笔并设置其颜色过滤器
-        Paint paint = new Paint();
-        paint.setColorFilter(new ColorMatrixColorFilter(hueColorMatrix));
-        // 创建一个新的图片并创建画布
-        Bitmap newBitmap = Bitmap.createBitmap(bitmap.getWidth(),
-                bitmap.getHeight(), Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(newBitmap);
-        // 将原图使用给定的画笔画到画布上
-        canvas.drawBitmap(bitmap, 0, 0, paint);
-        return newBitmap;
+        return applyColorMatrix(bitmap, hueColorMatrix, pool);
     }
 
     /**
@@ -655,37 +1128,25 @@ public class BitmapUtils {
      */
     public static Bitmap lumAndHueAndSaturation(Bitmap bitmap, int lumValue,
                                                 int hueValue, int saturationValue) {
-        // 计算出符合要求的饱和度值
-        float newSaturationValue = saturationValue * 1.0F / 127;
-        // 计算出符合要求的亮度值
-        float newlumValue = lumValue * 1.0F / 127;
-        // 计算出符合要求的色相值
-        float newHueValue = (hueValue - 127) * 1.0F / 127 * 180;
-
-        // 创建一个颜色矩阵并设置其饱和度
-        ColorMatrix colorMatrix = new ColorMatrix();
-
-        // 设置饱和度值
-        colorMatrix.setSaturation(newSaturationValue);
-        // 设置亮度值
-        colorMatrix.setScale(newlumValue, newlumValue, newlumValue, 1);
-        // 控制让红色区在色轮上旋转的角度
-        colorMatrix.setRotate(0, newHueValue);
-        // 控制让绿红色区在色轮上旋转的角度
-        colorMatrix.setRotate(1, newHueValue);
-        // 控制让蓝色区在色轮上旋转的角度
-        colorMatrix.setRotate(2, newHueValue);
+        return lumAndHueAndSaturation(bitmap, lumValue, hueValue, saturationValue, null);
+    }
 
-        // 创建一个画笔并设置其颜色过滤器
-        Paint paint = new Paint();
-        paint.setColorFilter(new ColorMatrixColorFilter(colorMatrix));
-        // 创建一个新的图片并创建画布
-        Bitmap newBitmap = Bitmap.createBitmap(bitmap.getWidth(),
-                bitmap.getHeight(), Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(newBitmap);
-        // 将原图使用给定的画笔画到画布上
-        canvas.drawBitmap(bitmap, 0, 0, paint);
-        return newBitmap;
+    /**
+     * 亮度、色相、饱和度处理，结果图片从复用池获取
+     * 需要反复调整参数预览时使用{@link ColorAdjust}
+     *
+     * @param bitmap          原图
+     * @param lumValue        亮度值
+     * @param hueValue        色相值
+     * @param saturationValue 饱和度值
+     * @param pool            复用池，为null时新建
+     * @return 亮度 、色相、饱和度处理后的图片
+     */
+    public static Bitmap lumAndHueAndSaturation(Bitmap bitmap, int lumValue,
+                                                int hueValue, int saturationValue, BitmapPool pool) {
+        // 饱和度、亮度、色相三个矩阵相乘，一次绘制完成
+        ColorAdjust adjust = new ColorAdjust().setLum(lumValue).setHue(hueValue).setSaturation(saturationValue);
+        return adjust.apply(bitmap, pool);
     }
 
     /**
@@ -695,35 +1156,18 @@ public class BitmapUtils {
      * @return bitmap
      */
     public static Bitmap nostalgic(Bitmap bitmap) {
-        int width = bitmap.getWidth();
-        int height = bitmap.getHeight();
-        Bitmap newBitmap = Bitmap.createBitmap(width, height,
-                Bitmap.Config.RGB_565);
-        int pixColor = 0;
-        int pixR = 0;
-        int pixG = 0;
-        int pixB = 0;
-        int newR = 0;
-        int newG = 0;
-        int newB = 0;
-        int[] pixels = new int[width * height];
-        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
-        for (int i = 0; i < height; i++) {
-            for (int k = 0; k < width; k++) {
-                pixColor = pixels[width * i + k];
-                pixR = Color.red(pixColor);
-                pixG = Color.green(pixColor);
-                pixB = Color.blue(pixColor);
-                newR = (int) (0.393 * pixR + 0.769 * pixG + 0.189 * pixB);
-                newG = (int) (0.349 * pixR + 0.686 * pixG + 0.168 * pixB);
-                newB = (int) (0.272 * pixR + 0.534 * pixG + 0.131 * pixB);
-                int newColor = Color.argb(255, newR > 255 ? 255 : newR,
-                        newG > 255 ? 255 : newG, newB > 255 ? 255 : newB);
-                pixels[width * i + k] = newColor;
-            }
-        }
-        newBitmap.setPixels(pixels, 0, width, 0, 0, width, height);
-        return newBitmap;
+        return nostalgic(bitmap, null);
+    }
+
+    /**
+     * 怀旧效果，结果图片与像素数组从复用池获取
+     *
+     * @param bitmap the bitmap
+     * @param pool   复用池，为null时新建
+     * @return bitmap
+     */
+    public static Bitmap nostalgic(Bitmap bitmap, BitmapPool pool) {
+        return applyFilter(bitmap, PixelFilters.NOSTALGIC, true, pool);
     }
 
     /**
@@ -731,66 +1175,32 @@ public class BitmapUtils {
      *
      * @param bitmap the bitmap
      * @return bitmap
+     * @see #blur(Bitmap, int) 需要更强的模糊效果时使用
      */
     public static Bitmap soften(Bitmap bitmap) {
-        // 高斯矩阵
-        int[] gauss = new int[]{1, 2, 1, 2, 4, 2, 1, 2, 1};
-
-        int width = bitmap.getWidth();
-        int height = bitmap.getHeight();
-        Bitmap newBitmap = Bitmap.createBitmap(width, height,
-                Bitmap.Config.RGB_565);
-
-        int pixR = 0;
-        int pixG = 0;
-        int pixB = 0;
-
-        int pixColor = 0;
-
-        int newR = 0;
-        int newG = 0;
-        int newB = 0;
-
-        int delta = 16; // 值越小图片会越亮，越大则越暗
-
-        int idx = 0;
-        int[] pixels = new int[width * height];
-        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
-        for (int i = 1, length = height - 1; i < length; i++) {
-            for (int k = 1, len = width - 1; k < len; k++) {
-                idx = 0;
-                for (int m = -1; m <= 1; m++) {
-                    for (int n = -1; n <= 1; n++) {
-                        pixColor = pixels[(i + m) * width + k + n];
-                        pixR = Color.red(pixColor);
-                        pixG = Color.green(pixColor);
-                        pixB = Color.blue(pixColor);
-
-                        newR = newR + (int) (pixR * gauss[idx]);
-                        newG = newG + (int) (pixG * gauss[idx]);
-                        newB = newB + (int) (pixB * gauss[idx]);
-                        idx++;
-                    }
-                }
-
-                newR /= delta;
-                newG /= delta;
-                newB /= delta;
-
-                newR = Math.min(255, Math.max(0, newR));
-                newG = Math.min(255, Math.max(0, newG));
-                newB = Math.min(255, Math.max(0, newB));
-
-                pixels[i * width + k] = Color.argb(255, newR, newG, newB);
+        return soften(bitmap, null);
+    }
 
-                newR = 0;
-                newG = 0;
-                newB = 0;
-            }
-        }
+    /**
+     * 柔化效果，结果图片与像素数组从复用池获取
+     *
+     * @param bitmap the bitmap
+     * @param pool   复用池，为null时新建
+     * @return bitmap
+     */
+    public static Bitmap soften(Bitmap bitmap, BitmapPool pool) {
+        return applySingleBand(bitmap, PixelFilters.SOFTEN_IN_PLACE, pool);
+    }
 
-        newBitmap.setPixels(pixels, 0, width, 0, 0, width, height);
-        return newBitmap;
+    /**
+     * 柔化效果，真正的3x3高斯卷积，多线程执行。每个像素只取原图邻居，结果比{@link #soften(Bitmap)}稍清晰
+     *
+     * @param bitmap the bitmap
+     * @param pool   复用池，为null时新建
+     * @return bitmap
+     */
+    public static Bitmap softenParallel(Bitmap bitmap, BitmapPool pool) {
+        return applyFilter(bitmap, PixelFilters.SOFTEN, false, pool);
     }
 
     /**
@@ -802,61 +1212,51 @@ public class BitmapUtils {
      * @return bitmap
      */
     public static Bitmap sunshine(Bitmap bitmap, int centerX, int centerY) {
-        final int width = bitmap.getWidth();
-        final int height = bitmap.getHeight();
-        Bitmap newBitmap = Bitmap.createBitmap(width, height,
-                Bitmap.Config.RGB_565);
-
-        int pixR = 0;
-        int pixG = 0;
-        int pixB = 0;
-
-        int pixColor = 0;
-
-        int newR = 0;
-        int newG = 0;
-        int newB = 0;
-        int radius = Math.min(centerX, centerY);
-
-        final float strength = 150F; // 光照强度 100~150
-        int[] pixels = new int[width * height];
-        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
-        int pos = 0;
-        for (int i = 1, length = height - 1; i < length; i++) {
-            for (int k = 1, len = width - 1; k < len; k++) {
-                pos = i * width + k;
-                pixColor = pixels[pos];
-
-                pixR = Color.red(pixColor);
-                pixG = Color.green(pixColor);
-                pixB = Color.blue(pixColor);
-
-                newR = pixR;
-                newG = pixG;
-                newB = pixB;
-
-                // 计算当前点到光照中心的距离，平面座标系中求两点之间的距离
-                int distance = (int) (Math.pow((centerY - i), 2) + Math.pow(
-                        centerX - k, 2));
-                if (distance < radius * radius) {
-                    // 按照距离大小计算增加的光照值
-                    int result = (int) (strength * (1.0 - Math.sqrt(distance)
-                            / radius));
-                    newR = pixR + result;
-                    newG = pixG + result;
-                    newB = pixB + result;
-                }
+        return sunshine(bitmap, centerX, centerY, null);
+    }
 
-                newR = Math.min(255, Math.max(0, newR));
-                newG = Math.min(255, Math.max(0, newG));
-                newB = Math.min(255, Math.max(0, newB));
+    /**
+     * 光照效果，结果图片与像素数组从复用池获取
+     *
+     * @param bitmap  the bitmap
+     * @param centerX 光源在X轴的位置
+     * @param centerY 光源在Y轴的位置
+     * @param pool    复用池，为null时新建
+     * @return bitmap
+     */
+    public static Bitmap sunshine(Bitmap bitmap, int centerX, int centerY, BitmapPool pool) {
+        return applyFilter(bitmap, PixelFilters.sunshine(centerX, centerY), true, pool);
+    }
 
-                pixels[pos] = Color.argb(255, newR, newG, newB);
-            }
-        }
+    /**
+     * 暗角效果，保留alpha
+     *
+     * @param bitmap   the bitmap
+     * @param centerX  中心在X轴的位置
+     * @param centerY  中心在Y轴的位置
+     * @param radius   半径，半径外变暗程度最大
+     * @param strength 0~1，边缘变暗的程度
+     * @return bitmap
+     */
+    public static Bitmap vignette(Bitmap bitmap, int centerX, int centerY, int radius, float strength) {
+        return vignette(bitmap, centerX, centerY, radius, strength, null);
+    }
 
-        newBitmap.setPixels(pixels, 0, width, 0, 0, width, height);
-        return newBitmap;
+    /**
+     * 暗角效果，结果图片与像素数组从复用池获取
+     *
+     * @param bitmap   the bitmap
+     * @param centerX  中心在X轴的位置
+     * @param centerY  中心在Y轴的位置
+     * @param radius   半径，半径外变暗程度最大
+     * @param strength 0~1，边缘变暗的程度
+     * @param pool     复用池，为null时新建
+     * @return bitmap
+     */
+    public static Bitmap vignette(Bitmap bitmap, int centerX, int centerY, int radius, float strength,
+                                  BitmapPool pool) {
+        return applyFilter(bitmap, RadialFilters.vignette(centerX, centerY, radius, strength), true,
+                Bitmap.Config.ARGB_8888, pool);
     }
 
     /**
@@ -866,161 +1266,369 @@ public class BitmapUtils {
      * @return bitmap
      */
     public static Bitmap film(Bitmap bitmap) {
-        // RGBA的最大值
-        final int MAX_VALUE = 255;
-        int width = bitmap.getWidth();
-        int height = bitmap.getHeight();
-        Bitmap newBitmap = Bitmap.createBitmap(width, height,
-                Bitmap.Config.RGB_565);
+        return film(bitmap, null);
+    }
 
-        int pixR = 0;
-        int pixG = 0;
-        int pixB = 0;
+    /**
+     * 底片效果，结果图片与像素数组从复用池获取
+     *
+     * @param bitmap the bitmap
+     * @param pool   复用池，为null时新建
+     * @return bitmap
+     */
+    public static Bitmap film(Bitmap bitmap, BitmapPool pool) {
+        return applyFilter(bitmap, PixelFilters.FILM, true, pool);
+    }
 
-        int pixColor = 0;
+    /**
+     * 锐化效果
+     *
+     * @param bitmap the bitmap
+     * @return bitmap
+     */
+    public static Bitmap sharpen(Bitmap bitmap) {
+        return sharpen(bitmap, null);
+    }
 
-        int newR = 0;
-        int newG = 0;
-        int newB = 0;
+    /**
+     * 锐化效果，结果图片与像素数组从复用池获取
+     *
+     * @param bitmap the bitmap
+     * @param pool   复用池，为null时新建
+     * @return bitmap
+     */
+    public static Bitmap sharpen(Bitmap bitmap, BitmapPool pool) {
+        return applySingleBand(bitmap, PixelFilters.SHARPEN_IN_PLACE, pool);
+    }
 
-        int[] pixels = new int[width * height];
-        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
-        int pos = 0;
-        for (int i = 1, length = height - 1; i < length; i++) {
-            for (int k = 1, len = width - 1; k < len; k++) {
-                pos = i * width + k;
-                pixColor = pixels[pos];
+    /**
+     * 锐化效果，真正的3x3拉普拉斯卷积，多线程执行。每个像素只取原图邻居，结果与{@link #sharpen(Bitmap)}不同
+     *
+     * @param bitmap the bitmap
+     * @param pool   复用池，为null时新建
+     * @return bitmap
+     */
+    public static Bitmap sharpenParallel(Bitmap bitmap, BitmapPool pool) {
+        return applyFilter(bitmap, PixelFilters.SHARPEN, false, pool);
+    }
+
+    /**
+     * 浮雕效果
+     *
+     * @param bitmap the bitmap
+     * @return bitmap
+     */
+    public static Bitmap emboss(Bitmap bitmap) {
+        return emboss(bitmap, null);
+    }
 
-                pixR = Color.red(pixColor);
-                pixG = Color.green(pixColor);
-                pixB = Color.blue(pixColor);
+    /**
+     * 浮雕效果，结果图片与像素数组从复用池获取
+     *
+     * @param bitmap the bitmap
+     * @param pool   复用池，为null时新建
+     * @return bitmap
+     */
+    public static Bitmap emboss(Bitmap bitmap, BitmapPool pool) {
+        return applyFilter(bitmap, PixelFilters.EMBOSS, false, pool);
+    }
 
-                newR = MAX_VALUE - pixR;
-                newG = MAX_VALUE - pixG;
-                newB = MAX_VALUE - pixB;
+    /**
+     * 使用自定义卷积核处理图片，逐行读取与写出，额外内存只有卷积核高度行像素
+     *
+     * @param bitmap the bitmap
+     * @param kernel 卷积核，如{@link Kernel#SHARPEN}
+     * @return 新的ARGB_8888图片 bitmap
+     */
+    public static Bitmap convolve(Bitmap bitmap, Kernel kernel) {
+        Bitmap newBitmap = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(), Bitmap.Config.ARGB_8888);
+        streamConvolve(bitmap, newBitmap, kernel);
+        return newBitmap;
+    }
 
-                newR = Math.min(MAX_VALUE, Math.max(0, newR));
-                newG = Math.min(MAX_VALUE, Math.max(0, newG));
-                newB = Math.min(MAX_VALUE, Math.max(0, newB));
+    /**
+     * 使用自定义卷积核直接修改图片，不创建新图片，适合处理全景图等超大图片
+     *
+     * @param bitmap 可修改的图片
+     * @param kernel 卷积核
+     * @return 传入的bitmap
+     */
+    public static Bitmap convolveInPlace(Bitmap bitmap, Kernel kernel) {
+        if (!bitmap.isMutable()) {
+            throw new IllegalArgumentException("bitmap must be mutable.");
+        }
+        streamConvolve(bitmap, bitmap, kernel);
+        return bitmap;
+    }
 
-                pixels[pos] = Color.argb(MAX_VALUE, newR, newG, newB);
+    private static void streamConvolve(final Bitmap src, final Bitmap dst, Kernel kernel) {
+        final int width = src.getWidth();
+        Convolution.stream(kernel, width, src.getHeight(), new Convolution.RowSource() {
+            @Override
+            public void readRow(int[] buffer, int offset, int row) {
+                src.getPixels(buffer, offset, width, 0, row, width, 1);
             }
-        }
+        }, new Convolution.RowSink() {
+            @Override
+            public void writeRow(int[] buffer, int offset, int row) {
+                dst.setPixels(buffer, offset, width, 0, row, width, 1);
+            }
+        });
+    }
 
-        newBitmap.setPixels(pixels, 0, width, 0, 0, width, height);
-        return newBitmap;
+    /**
+     * 按通道查找表映射颜色，适合自定义曲线，保留alpha
+     *
+     * @param bitmap the bitmap
+     * @param r      红色通道查找表，长度256
+     * @param g      绿色通道查找表，长度256
+     * @param b      蓝色通道查找表，长度256
+     * @return bitmap
+     */
+    public static Bitmap applyLut(Bitmap bitmap, int[] r, int[] g, int[] b) {
+        return applyLut(bitmap, r, g, b, null);
     }
 
     /**
-     * 锐化效果
+     * 按通道查找表映射颜色，结果图片与像素数组从复用池获取
      *
      * @param bitmap the bitmap
+     * @param r      红色通道查找表，长度256
+     * @param g      绿色通道查找表，长度256
+     * @param b      蓝色通道查找表，长度256
+     * @param pool   复用池，为null时新建
      * @return bitmap
      */
-    public static Bitmap sharpen(Bitmap bitmap) {
-        // 拉普拉斯矩阵
-        int[] laplacian = new int[]{-1, -1, -1, -1, 9, -1, -1, -1, -1};
+    public static Bitmap applyLut(Bitmap bitmap, int[] r, int[] g, int[] b, BitmapPool pool) {
+        return applyFilter(bitmap, LutFilters.curves(r, g, b), true, Bitmap.Config.ARGB_8888, pool);
+    }
 
+    /**
+     * 统计图片的直方图、均值、分位数与主色调
+     *
+     * @param bitmap the bitmap
+     * @param step   采样间隔，每隔step行、step列统计一个像素，1为统计全部像素
+     * @return the image statistics
+     */
+    public static ImageStatistics getStatistics(Bitmap bitmap, int step) {
         int width = bitmap.getWidth();
         int height = bitmap.getHeight();
-        Bitmap newBitmap = Bitmap.createBitmap(width, height,
-                Bitmap.Config.RGB_565);
+        step = Math.max(1, step);
+        if (step == 1) {
+            int[] pixels = new int[width * height];
+            bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+            return ImageStatistics.compute(pixels, width, height);
+        }
+        // 只读取采样行，内存只占采样后的像素
+        int sampledWidth = (width + step - 1) / step;
+        int sampledHeight = (height + step - 1) / step;
+        int[] row = new int[width];
+        int[] sampled = new int[sampledWidth * sampledHeight];
+        for (int y = 0, i = 0; y < sampledHeight; y++) {
+            bitmap.getPixels(row, 0, width, 0, y * step, width, 1);
+            for (int x = 0; x < width; x += step) {
+                sampled[i++] = row[x];
+            }
+        }
+        return ImageStatistics.compute(sampled, sampledWidth, sampledHeight);
+    }
 
-        int pixR = 0;
-        int pixG = 0;
-        int pixB = 0;
+    /**
+     * 自动色阶，各通道分别拉伸，可以校正偏色
+     *
+     * @param bitmap      the bitmap
+     * @param clipPercent 两端各裁掉的像素百分比，如0.5
+     * @return bitmap
+     */
+    public static Bitmap autoLevels(Bitmap bitmap, double clipPercent) {
+        ImageStatistics statistics = getStatistics(bitmap, getStatisticsStep(bitmap));
+        return applyFilter(bitmap, statistics.autoLevels(clipPercent), true, Bitmap.Config.ARGB_8888, null);
+    }
 
-        int pixColor = 0;
+    /**
+     * 自动对比度，按亮度拉伸，不改变色调
+     *
+     * @param bitmap      the bitmap
+     * @param clipPercent 两端各裁掉的像素百分比，如0.5
+     * @return bitmap
+     */
+    public static Bitmap autoContrast(Bitmap bitmap, double clipPercent) {
+        ImageStatistics statistics = getStatistics(bitmap, getStatisticsStep(bitmap));
+        return applyFilter(bitmap, statistics.autoContrast(clipPercent), true, Bitmap.Config.ARGB_8888, null);
+    }
 
-        int newR = 0;
-        int newG = 0;
-        int newB = 0;
+    /**
+     * 采样约256K个像素的间隔，对直方图的精度足够
+     */
+    private static int getStatisticsStep(Bitmap bitmap) {
+        double pixels = (double) bitmap.getWidth() * bitmap.getHeight();
+        return Math.max(1, (int) Math.sqrt(pixels / (256 * 1024)));
+    }
 
-        int idx = 0;
-        float alpha = 0.3F;
-        int[] pixels = new int[width * height];
-        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
-        for (int i = 1, length = height - 1; i < length; i++) {
-            for (int k = 1, len = width - 1; k < len; k++) {
-                idx = 0;
-                for (int m = -1; m <= 1; m++) {
-                    for (int n = -1; n <= 1; n++) {
-                        pixColor = pixels[(i + n) * width + k + m];
-                        pixR = Color.red(pixColor);
-                        pixG = Color.green(pixColor);
-                        pixB = Color.blue(pixColor);
-
-                        newR = newR + (int) (pixR * laplacian[idx] * alpha);
-                        newG = newG + (int) (pixG * laplacian[idx] * alpha);
-                        newB = newB + (int) (pixB * laplacian[idx] * alpha);
-                        idx++;
-                    }
-                }
+    /**
+     * 高斯模糊，计算量与半径无关
+     *
+     * @param bitmap the bitmap
+     * @param radius 模糊半径（即高斯核的标准差）
+     * @return 模糊后的图片 bitmap
+     */
+    public static Bitmap blur(Bitmap bitmap, int radius) {
+        return blur(bitmap, radius, null, null);
+    }
 
-                newR = Math.min(255, Math.max(0, newR));
-                newG = Math.min(255, Math.max(0, newG));
-                newB = Math.min(255, Math.max(0, newB));
+    /**
+     * 对图片指定区域进行高斯模糊，区域外保持不变
+     *
+     * @param bitmap the bitmap
+     * @param radius 模糊半径（即高斯核的标准差）
+     * @param region 模糊区域，为null时模糊整张图片
+     * @return 模糊后的图片 bitmap
+     */
+    public static Bitmap blur(Bitmap bitmap, int radius, Rect region) {
+        return blur(bitmap, radius, region, null);
+    }
 
-                pixels[i * width + k] = Color.argb(255, newR, newG, newB);
-                newR = 0;
-                newG = 0;
-                newB = 0;
-            }
+    /**
+     * 对图片指定区域进行高斯模糊，结果图片与像素数组从复用池获取
+     *
+     * @param bitmap the bitmap
+     * @param radius 模糊半径（即高斯核的标准差）
+     * @param region 模糊区域，为null时模糊整张图片
+     * @param pool   复用池，为null时新建
+     * @return 模糊后的图片 bitmap
+     */
+    public static Bitmap blur(Bitmap bitmap, int radius, Rect region, BitmapPool pool) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        Rect rect = new Rect(0, 0, width, height);
+        if (region != null && !rect.intersect(region)) {
+            return bitmap.copy(Bitmap.Config.ARGB_8888, true);
         }
-
+        int regionSize = rect.width() * rect.height();
+        int[] pixels = obtainPixels(pool, width * height);
+        int[] work = obtainPixels(pool, regionSize);
+        int[] scratch = obtainPixels(pool, regionSize);
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        GaussianBlur.blur(pixels, width, rect.left, rect.top, rect.width(), rect.height(), radius,
+                work, scratch);
+        Bitmap newBitmap = obtainBitmap(pool, width, height, Bitmap.Config.ARGB_8888);
         newBitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+        releasePixels(pool, pixels, work, scratch);
         return newBitmap;
     }
 
     /**
-     * 浮雕效果
+     * 执行滤镜流水线，整条流水线只读取一次像素、只创建一张结果图片
      *
-     * @param bitmap the bitmap
-     * @return bitmap
+     * @param bitmap   the bitmap
+     * @param pipeline the pipeline
+     * @return 处理后的图片 bitmap
      */
-    public static Bitmap emboss(Bitmap bitmap) {
+    public static Bitmap applyPipeline(Bitmap bitmap, FilterPipeline pipeline) {
+        return applyPipeline(bitmap, pipeline, null);
+    }
+
+    /**
+     * 执行滤镜流水线，结果图片与像素数组从复用池获取
+     *
+     * @param bitmap   the bitmap
+     * @param pipeline the pipeline
+     * @param pool     复用池，为null时新建
+     * @return 处理后的图片 bitmap
+     */
+    public static Bitmap applyPipeline(Bitmap bitmap, FilterPipeline pipeline, BitmapPool pool) {
         int width = bitmap.getWidth();
         int height = bitmap.getHeight();
-        Bitmap newBitmap = Bitmap.createBitmap(width, height,
-                Bitmap.Config.RGB_565);
-
-        int pixR = 0;
-        int pixG = 0;
-        int pixB = 0;
-
-        int pixColor = 0;
+        int[] pixels = obtainPixels(pool, width * height);
+        int[] scratch = pipeline.needsScratch() ? obtainPixels(pool, width * height) : null;
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        int[] out = pipeline.apply(pixels, scratch, width, height);
+        Bitmap newBitmap = obtainBitmap(pool, width, height, Bitmap.Config.ARGB_8888);
+        newBitmap.setPixels(out, 0, width, 0, 0, width, height);
+        releasePixels(pool, pixels, scratch);
+        return newBitmap;
+    }
 
-        int newR = 0;
-        int newG = 0;
-        int newB = 0;
+    /**
+     * 使用默认{@link PixelEngine}对图片像素执行滤镜，输出RGB_565图片
+     *
+     * @param bitmap  the bitmap
+     * @param filter  the filter
+     * @param inPlace 是否为点操作滤镜，点操作直接在源像素上修改，卷积滤镜需要单独的输出数组
+     * @param pool    复用池，为null时新建
+     * @return bitmap
+     */
+    private static Bitmap applyFilter(Bitmap bitmap, PixelEngine.BandFilter filter, boolean inPlace,
+                                      BitmapPool pool) {
+        return applyFilter(bitmap, filter, inPlace, Bitmap.Config.RGB_565, pool);
+    }
 
-        int[] pixels = new int[width * height];
+    private static Bitmap applyFilter(Bitmap bitmap, PixelEngine.BandFilter filter, boolean inPlace,
+                                      Bitmap.Config config, BitmapPool pool) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] pixels = obtainPixels(pool, width * height);
         bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
-        int pos = 0;
-        for (int i = 1, length = height - 1; i < length; i++) {
-            for (int k = 1, len = width - 1; k < len; k++) {
-                pos = i * width + k;
-                pixColor = pixels[pos];
-
-                pixR = Color.red(pixColor);
-                pixG = Color.green(pixColor);
-                pixB = Color.blue(pixColor);
-
-                pixColor = pixels[pos + 1];
-                newR = Color.red(pixColor) - pixR + 127;
-                newG = Color.green(pixColor) - pixG + 127;
-                newB = Color.blue(pixColor) - pixB + 127;
-
-                newR = Math.min(255, Math.max(0, newR));
-                newG = Math.min(255, Math.max(0, newG));
-                newB = Math.min(255, Math.max(0, newB));
-
-                pixels[pos] = Color.argb(255, newR, newG, newB);
-            }
-        }
+        int[] out = inPlace ? pixels : obtainPixels(pool, width * height);
+        PixelEngine.getDefault().run(pixels, out, width, height, filter);
+        Bitmap newBitmap = obtainBitmap(pool, width, height, config);
+        newBitmap.setPixels(out, 0, width, 0, 0, width, height);
+        releasePixels(pool, pixels, inPlace ? null : out);
+        return newBitmap;
+    }
 
+    /**
+     * 在调用线程以单个条带原地执行有行间依赖的旧版滤镜，输出RGB_565图片
+     */
+    private static Bitmap applySingleBand(Bitmap bitmap, PixelEngine.BandFilter filter, BitmapPool pool) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] pixels = obtainPixels(pool, width * height);
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        filter.filter(pixels, pixels, width, height, 0, height);
+        Bitmap newBitmap = obtainBitmap(pool, width, height, Bitmap.Config.RGB_565);
         newBitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+        releasePixels(pool, pixels);
+        return newBitmap;
+    }
+
+    /**
+     * 使用颜色矩阵将原图绘制到新的ARGB_8888图片上
+     *
+     * @param bitmap the bitmap
+     * @param matrix the matrix
+     * @param pool   复用池，为null时新建
+     * @return bitmap
+     */
+    private static Bitmap applyColorMatrix(Bitmap bitmap, ColorMatrix matrix, BitmapPool pool) {
+        // 创建一个画笔并设置其颜色过滤器
+        Paint paint = new Paint();
+        paint.setColorFilter(new ColorMatrixColorFilter(matrix));
+        // 创建一个新的图片并创建画布
+        Bitmap newBitmap = pool == null ? Bitmap.createBitmap(bitmap.getWidth(),
+                bitmap.getHeight(), Bitmap.Config.ARGB_8888)
+                : pool.getCleanBitmap(bitmap.getWidth(), bitmap.getHeight(), Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(newBitmap);
+        // 将原图使用给定的画笔画到画布上
+        canvas.drawBitmap(bitmap, 0, 0, paint);
         return newBitmap;
     }
 
+    private static int[] obtainPixels(BitmapPool pool, int length) {
+        return pool == null ? new int[length] : pool.obtainPixels(length);
+    }
+
+    private static Bitmap obtainBitmap(BitmapPool pool, int width, int height, Bitmap.Config config) {
+        return pool == null ? Bitmap.createBitmap(width, height, config) : pool.getBitmap(width, height, config);
+    }
+
+    private static void releasePixels(BitmapPool pool, int[]... buffers) {
+        if (pool == null) {
+            return;
+        }
+        for (int[] buffer : buffers) {
+            pool.release(buffer);
+        }
+    }
+
 }
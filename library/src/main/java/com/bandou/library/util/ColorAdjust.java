@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2016 venshine.cn@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bandou.library.util;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorMatrix;
+import android.graphics.ColorMatrixColorFilter;
+import android.graphics.Paint;
+import android.os.Build;
+
+/**
+ * 亮度、色相、饱和度组合调整
+ * <p>
+ * 三项调整按饱和度、亮度、色相的顺序相乘为一个颜色矩阵，只在参数变化时重新计算并缓存ColorMatrixColorFilter，
+ * 参数不变时重复绘制不分配任何对象，适合拖动滑块实时预览：
+ * <pre>
+ * ColorAdjust adjust = new ColorAdjust();
+ * Bitmap preview = Bitmap.createBitmap(src.getWidth(), src.getHeight(), Bitmap.Config.ARGB_8888);
+ * // onProgressChanged
+ * adjust.setLum(progress).apply(src, preview);
+ * imageView.invalidate();
+ * </pre>
+ * 参数含义与BitmapUtils.lum、hue、saturation一致，127为原图。非线程安全。
+ *
+ * @author venshine
+ */
+public class ColorAdjust {
+
+    /**
+     * 原图对应的参数值
+     */
+    public static final int DEFAULT_VALUE = 127;
+
+    private int lum = DEFAULT_VALUE;
+    private int hue = DEFAULT_VALUE;
+    private int saturation = DEFAULT_VALUE;
+
+    private final ColorMatrix saturationMatrix = new ColorMatrix();
+    private final ColorMatrix lumMatrix = new ColorMatrix();
+    private final ColorMatrix hueMatrix = new ColorMatrix();
+    private final ColorMatrix matrix = new ColorMatrix();
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Canvas canvas = new Canvas();
+    private ColorMatrixColorFilter colorFilter;
+    private boolean dirty = true;
+
+    /**
+     * 亮度
+     *
+     * @param lumValue 亮度值，127为原图
+     * @return the color adjust
+     */
+    public ColorAdjust setLum(int lumValue) {
+        if (lum != lumValue) {
+            lum = lumValue;
+            dirty = true;
+        }
+        return this;
+    }
+
+    /**
+     * 色相
+     *
+     * @param hueValue 色相值，127为原图
+     * @return the color adjust
+     */
+    public ColorAdjust setHue(int hueValue) {
+        if (hue != hueValue) {
+            hue = hueValue;
+            dirty = true;
+        }
+        return this;
+    }
+
+    /**
+     * 饱和度
+     *
+     * @param saturationValue 饱和度值，127为原图
+     * @return the color adjust
+     */
+    public ColorAdjust setSaturation(int saturationValue) {
+        if (saturation != saturationValue) {
+            saturation = saturationValue;
+            dirty = true;
+        }
+        return this;
+    }
+
+    /**
+     * 恢复为原图
+     *
+     * @return the color adjust
+     */
+    public ColorAdjust reset() {
+        return setLum(DEFAULT_VALUE).setHue(DEFAULT_VALUE).setSaturation(DEFAULT_VALUE);
+    }
+
+    public int getLum() {
+        return lum;
+    }
+
+    public int getHue() {
+        return hue;
+    }
+
+    public int getSaturation() {
+        return saturation;
+    }
+
+    /**
+     * 三项调整相乘后的颜色矩阵的副本
+     *
+     * @return the color matrix
+     */
+    public ColorMatrix getColorMatrix() {
+        update();
+        return new ColorMatrix(matrix);
+    }
+
+    /**
+     * 缓存的颜色过滤器，参数不变时返回同一对象，可以直接设置给ImageView或Paint
+     *
+     * @return the color matrix color filter
+     */
+    public ColorMatrixColorFilter getColorFilter() {
+        update();
+        return colorFilter;
+    }
+
+    /**
+     * 将src按当前参数绘制到canvas上
+     *
+     * @param canvas the canvas
+     * @param src    the src
+     * @param left   the left
+     * @param top    the top
+     */
+    public void draw(Canvas canvas, Bitmap src, float left, float top) {
+        update();
+        canvas.drawBitmap(src, left, top, paint);
+    }
+
+    /**
+     * 将src按当前参数绘制到调用方提供的dst上，dst原有内容被替换，不分配对象
+     *
+     * @param src 原图
+     * @param dst 可修改的目标图片，与src尺寸相同且不能是同一张图片
+     * @return dst
+     */
+    public Bitmap apply(Bitmap src, Bitmap dst) {
+        if (src == dst) {
+            throw new IllegalArgumentException("src and dst must be different bitmaps.");
+        }
+        dst.eraseColor(0);
+        canvas.setBitmap(dst);
+        try {
+            draw(canvas, src, 0, 0);
+        } finally {
+            // 不再持有dst，复用池中的图片可能被回收或另作他用
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                canvas.setBitmap(null);
+            }
+        }
+        return dst;
+    }
+
+    /**
+     * 按当前参数生成新的ARGB_8888图片
+     *
+     * @param src 原图
+     * @return bitmap
+     */
+    public Bitmap apply(Bitmap src) {
+        return apply(src, Bitmap.createBitmap(src.getWidth(), src.getHeight(), Bitmap.Config.ARGB_8888));
+    }
+
+    /**
+     * 按当前参数生成图片，目标图片从复用池获取
+     *
+     * @param src  原图
+     * @param pool 复用池，为null时新建
+     * @return bitmap
+     */
+    public Bitmap apply(Bitmap src, BitmapPool pool) {
+        if (pool == null) {
+            return apply(src);
+        }
+        return apply(src, pool.getBitmap(src.getWidth(), src.getHeight(), Bitmap.Config.ARGB_8888));
+    }
+
+    /**
+     * 参数变化后重新计算矩阵：先饱和度，再亮度，最后色相
+     */
+    private void update() {
+        if (!dirty) {
+            return;
+        }
+        float newSaturationValue = saturation * 1.0F / 127;
+        float newLumValue = lum * 1.0F / 127;
+        float newHueValue = (hue - 127) * 1.0F / 127 * 180;
+        saturationMatrix.setSaturation(newSaturationValue);
+        lumMatrix.setScale(newLumValue, newLumValue, newLumValue, 1);
+        // 与BitmapUtils.hue的实际效果一致，绕蓝色轴旋转
+        hueMatrix.setRotate(2, newHueValue);
+        matrix.set(saturationMatrix);
+        matrix.postConcat(lumMatrix);
+        matrix.postConcat(hueMatrix);
+        // ColorMatrixColorFilter在API 21以前不可修改，参数变化时新建
+        colorFilter = new ColorMatrixColorFilter(matrix);
+        paint.setColorFilter(colorFilter);
+        dirty = false;
+    }
+}
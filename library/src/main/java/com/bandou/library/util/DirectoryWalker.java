@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2016 venshine.cn@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bandou.library.util;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructStat;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 多线程目录遍历
+ * <p>
+ * 每个子目录作为一个任务交给线程池，各线程同时列目录，适合包含大量文件的缓存目录。
+ * 每个目录记录尚未完成的子目录数，最后一个子目录完成时回调postVisitDirectory，
+ * 因此删除时目录总是在其中的内容删除之后才删除。
+ * API 21以上用一次lstat同时得到类型与大小，并且不跟随符号链接（链接本身按文件处理）；
+ * 更低版本使用File.isDirectory与File.length。无法读取的目录计入错误数，不抛出异常。
+ * <pre>
+ * DirectoryWalker.Result result = DirectoryWalker.getDefault().walk(cacheDir, null);
+ * long size = result.totalSize;
+ * </pre>
+ *
+ * @author venshine
+ */
+public final class DirectoryWalker {
+
+    private static DirectoryWalker sDefault;
+
+    private final ExecutorService executor;
+
+    /**
+     * 遍历回调，在线程池中的多个线程上并发调用，实现需线程安全
+     */
+    public interface Visitor {
+
+        /**
+         * 进入目录前调用
+         *
+         * @param dir the dir
+         * @return false时跳过该目录，不会回调postVisitDirectory
+         */
+        boolean preVisitDirectory(File dir);
+
+        /**
+         * 访问文件
+         *
+         * @param file the file
+         * @param size 文件大小
+         */
+        void visitFile(File file, long size);
+
+        /**
+         * 目录中的文件和子目录全部访问完后调用
+         *
+         * @param dir the dir
+         */
+        void postVisitDirectory(File dir);
+    }
+
+    /**
+     * 空实现，按需覆盖
+     */
+    public static class SimpleVisitor implements Visitor {
+
+        @Override
+        public boolean preVisitDirectory(File dir) {
+            return true;
+        }
+
+        @Override
+        public void visitFile(File file, long size) {
+        }
+
+        @Override
+        public void postVisitDirectory(File dir) {
+        }
+    }
+
+    /**
+     * 遍历结果
+     */
+    public static final class Result {
+        /**
+         * 文件数
+         */
+        public final long fileCount;
+        /**
+         * 目录数，包含根目录，不包含跳过的目录
+         */
+        public final long directoryCount;
+        /**
+         * 文件总大小
+         */
+        public final long totalSize;
+        /**
+         * 无法读取的目录数
+         */
+        public final long errorCount;
+
+        Result(long fileCount, long directoryCount, long totalSize, long errorCount) {
+            this.fileCount = fileCount;
+            this.directoryCount = directoryCount;
+            this.totalSize = totalSize;
+            this.errorCount = errorCount;
+        }
+
+        @Override
+        public String toString() {
+            return "Result[files=" + fileCount + ",directories=" + directoryCount + ",size=" + totalSize
+                    + ",errors=" + errorCount + "]";
+        }
+    }
+
+    /**
+     * Instantiates a new Directory walker.
+     *
+     * @param parallelism 并行线程数
+     */
+    public DirectoryWalker(int parallelism) {
+        executor = Executors.newFixedThreadPool(Math.max(1, parallelism), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "DirectoryWalker #" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * 默认实例，线程数为CPU核数，至少2个
+     *
+     * @return the default
+     */
+    public static synchronized DirectoryWalker getDefault() {
+        if (sDefault == null) {
+            sDefault = new DirectoryWalker(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        }
+        return sDefault;
+    }
+
+    /**
+     * 遍历，返回时全部回调均已完成
+     *
+     * @param root    根目录或文件
+     * @param visitor 回调，只需统计时可以为null
+     * @return the result
+     */
+    public Result walk(File root, Visitor visitor) {
+        Walk walk = new Walk(visitor != null ? visitor : new SimpleVisitor());
+        return walk.run(root);
+    }
+
+    /**
+     * 关闭线程池，默认实例不能关闭
+     */
+    public void shutdown() {
+        if (this != sDefault) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * 获取类型与大小，stat[0]为1表示目录，stat[1]为大小；不存在时返回false
+     */
+    private static boolean stat(File file, long[] stat) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            return lstat(file, stat);
+        }
+        if (file.isDirectory()) {
+            stat[0] = 1;
+            stat[1] = 0;
+            return true;
+        }
+        stat[0] = 0;
+        stat[1] = file.length();
+        return stat[1] > 0 || file.exists();
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static boolean lstat(File file, long[] stat) {
+        try {
+            StructStat st = Os.lstat(file.getPath());
+            boolean directory = OsConstants.S_ISDIR(st.st_mode);
+            stat[0] = directory ? 1 : 0;
+            stat[1] = directory ? 0 : st.st_size;
+            return true;
+        } catch (ErrnoException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 待完成的目录，pending为自身列目录与未完成的子目录数之和
+     */
+    private static final class Node {
+
+        final File dir;
+        final Node parent;
+        final AtomicInteger pending = new AtomicInteger(1);
+        volatile boolean visited;
+
+        Node(File dir, Node parent) {
+            this.dir = dir;
+            this.parent = parent;
+        }
+    }
+
+    /**
+     * 一次遍历的状态
+     */
+    private final class Walk {
+
+        private final Visitor visitor;
+        private final AtomicLong files = new AtomicLong();
+        private final AtomicLong directories = new AtomicLong();
+        private final AtomicLong size = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile RuntimeException failure;
+
+        Walk(Visitor visitor) {
+            this.visitor = visitor;
+        }
+
+        Result run(File root) {
+            long[] stat = new long[2];
+            if (stat(root, stat)) {
+                if (stat[0] == 0) {
+                    files.incrementAndGet();
+                    size.addAndGet(stat[1]);
+                    visitor.visitFile(root, stat[1]);
+                } else {
+                    submit(new Node(root, null));
+                    boolean interrupted = false;
+                    while (true) {
+                        try {
+                            done.await();
+                            break;
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                    }
+                    if (interrupted) {
+                        Thread.currentThread().interrupt();
+                    }
+                    if (failure != null) {
+                        throw failure;
+                    }
+                }
+            }
+            return new Result(files.get(), directories.get(), size.get(), errors.get());
+        }
+
+        private void submit(final Node node) {
+            Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        visit(node);
+                    } catch (RuntimeException e) {
+                        failure = e;
+                    } finally {
+                        complete(node);
+                    }
+                }
+            };
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                task.run();
+            }
+        }
+
+        private void visit(Node node) {
+            if (failure != null || !visitor.preVisitDirectory(node.dir)) {
+                return;
+            }
+            node.visited = true;
+            directories.incrementAndGet();
+            File[] children = node.dir.listFiles();
+            if (children == null) {
+                errors.incrementAndGet();
+                return;
+            }
+            long[] stat = new long[2];
+            long fileCount = 0;
+            long fileSize = 0;
+            for (File child : children) {
+                if (!stat(child, stat)) {
+                    continue;
+                }
+                if (stat[0] == 1) {
+                    node.pending.incrementAndGet();
+                    submit(new Node(child, node));
+                } else {
+                    fileCount++;
+                    fileSize += stat[1];
+                    visitor.visitFile(child, stat[1]);
+                }
+            }
+            files.addAndGet(fileCount);
+            size.addAndGet(fileSize);
+        }
+
+        /**
+         * 目录完成时向上传递，最后一个完成的子目录负责回调父目录
+         */
+        private void complete(Node node) {
+            while (node.pending.decrementAndGet() == 0) {
+                if (node.visited && failure == null) {
+                    try {
+                        visitor.postVisitDirectory(node.dir);
+                    } catch (RuntimeException e) {
+                        failure = e;
+                    }
+                }
+                if (node.parent == null) {
+                    done.countDown();
+                    return;
+                }
+                node = node.parent;
+            }
+        }
+    }
+}
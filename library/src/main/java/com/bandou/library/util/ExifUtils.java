@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2016 venshine.cn@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bandou.library.util;
+
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * EXIF方向读取
+ * <p>
+ * 只扫描JPEG文件头部的段标记，找到APP1(Exif)段后读取IFD0中的Orientation标签，
+ * 不解析其它标签，也不读取图片数据。APP1段只读取Exif头与IFD0，内嵌缩略图、XMP等其余内容直接跳过。
+ * 返回值与{@link ExifInterface}的ORIENTATION_*常量一致。
+ *
+ * @author venshine
+ */
+public class ExifUtils {
+
+    private static final int MARKER_PREFIX = 0xFF;
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_APP1 = 0xE1;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_EOI = 0xD9;
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TYPE_SHORT = 3;
+    private static final int BUFFER_SIZE = 8 * 1024;
+    /**
+     * APP1段最多读取的前缀长度，IFD0不在这个范围内时放弃，其余部分（缩略图等）直接跳过
+     */
+    private static final int MAX_PREFIX = 4 * 1024;
+
+    private ExifUtils() {
+        throw new AssertionError();
+    }
+
+    /**
+     * 读取图片的EXIF方向
+     *
+     * @param path 图片绝对路径
+     * @return ExifInterface.ORIENTATION_*，非JPEG或没有方向信息时返回ORIENTATION_NORMAL
+     */
+    public static int readOrientation(String path) {
+        InputStream is = null;
+        try {
+            is = new BufferedInputStream(new FileInputStream(path), BUFFER_SIZE);
+            return readOrientation(is);
+        } catch (IOException e) {
+            return ExifInterface.ORIENTATION_NORMAL;
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    /**
+     * 从输入流读取EXIF方向，调用方负责关闭流
+     *
+     * @param is the input stream
+     * @return ExifInterface.ORIENTATION_*
+     * @throws IOException the io exception
+     */
+    public static int readOrientation(InputStream is) throws IOException {
+        if (is.read() != MARKER_PREFIX || is.read() != MARKER_SOI) {
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+        while (true) {
+            int marker = is.read();
+            if (marker != MARKER_PREFIX) {
+                return ExifInterface.ORIENTATION_NORMAL;
+            }
+            // 跳过填充字节
+            while (marker == MARKER_PREFIX) {
+                marker = is.read();
+            }
+            if (marker < 0 || marker == MARKER_SOS || marker == MARKER_EOI) {
+                return ExifInterface.ORIENTATION_NORMAL;
+            }
+            int length = readUnsignedShort(is) - 2;
+            if (length < 0) {
+                return ExifInterface.ORIENTATION_NORMAL;
+            }
+            if (marker == MARKER_APP1) {
+                // 只读取Exif头、TIFF头与IFD0，段的其余部分跳过
+                SegmentPrefix segment = new SegmentPrefix(is, length);
+                int orientation = parseApp1(segment);
+                if (orientation != 0) {
+                    return orientation;
+                }
+                skipFully(is, length - segment.count);
+            } else {
+                skipFully(is, length);
+            }
+        }
+    }
+
+    /**
+     * 从内存中的JPEG数据读取EXIF方向
+     *
+     * @param data the data
+     * @return ExifInterface.ORIENTATION_*
+     */
+    public static int readOrientation(byte[] data) {
+        if (data == null) {
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+        try {
+            return readOrientation(new ByteArrayInputStream(data));
+        } catch (IOException e) {
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    /**
+     * 方向对应的顺时针旋转角度，镜像方向返回镜像后需要旋转的角度
+     *
+     * @param orientation ExifInterface.ORIENTATION_*
+     * @return 0、90、180或270
+     */
+    public static int getDegree(int orientation) {
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_ROTATE_180:
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                return 180;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                return 90;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 是否交换宽高
+     *
+     * @param orientation ExifInterface.ORIENTATION_*
+     * @return the boolean
+     */
+    public static boolean isSwapped(int orientation) {
+        return orientation >= ExifInterface.ORIENTATION_TRANSPOSE
+                && orientation <= ExifInterface.ORIENTATION_ROTATE_270;
+    }
+
+    /**
+     * 将方向的旋转与镜像追加到矩阵，作用于原图坐标
+     *
+     * @param matrix      the matrix
+     * @param orientation ExifInterface.ORIENTATION_*
+     */
+    public static void postOrientation(Matrix matrix, int orientation) {
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.postRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.postScale(1, -1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.postRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.postRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.postRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.postRotate(-90);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 解析APP1段，按需读取段的前缀
+     *
+     * @return 方向，不是Exif段或没有方向标签时返回0
+     */
+    private static int parseApp1(SegmentPrefix segment) throws IOException {
+        // "Exif\0\0" + TIFF头(8字节)
+        if (!segment.require(14)) {
+            return 0;
+        }
+        byte[] b = segment.buffer;
+        if (b[0] != 'E' || b[1] != 'x' || b[2] != 'i' || b[3] != 'f' || b[4] != 0 || b[5] != 0) {
+            return 0;
+        }
+        final int tiff = 6;
+        boolean littleEndian;
+        if (b[tiff] == 'I' && b[tiff + 1] == 'I') {
+            littleEndian = true;
+        } else if (b[tiff] == 'M' && b[tiff + 1] == 'M') {
+            littleEndian = false;
+        } else {
+            return 0;
+        }
+        if (getShort(b, tiff + 2, littleEndian) != 42) {
+            return 0;
+        }
+        long ifdOffset = getInt(b, tiff + 4, littleEndian) & 0xFFFFFFFFL;
+        if (ifdOffset > MAX_PREFIX || !segment.require(tiff + (int) ifdOffset + 2)) {
+            return 0;
+        }
+        int ifd = tiff + (int) ifdOffset;
+        b = segment.buffer;
+        int count = getShort(b, ifd, littleEndian);
+        // 条目不完整时只解析已读到的部分
+        segment.require(Math.min(ifd + 2 + count * 12, Math.min(segment.length, MAX_PREFIX)));
+        b = segment.buffer;
+        for (int i = 0, entry = ifd + 2; i < count && entry + 12 <= segment.count; i++, entry += 12) {
+            if (getShort(b, entry, littleEndian) != TAG_ORIENTATION) {
+                continue;
+            }
+            if (getShort(b, entry + 2, littleEndian) != TYPE_SHORT) {
+                return 0;
+            }
+            int orientation = getShort(b, entry + 8, littleEndian);
+            return orientation >= ExifInterface.ORIENTATION_NORMAL
+                    && orientation <= ExifInterface.ORIENTATION_ROTATE_270 ? orientation : 0;
+        }
+        return 0;
+    }
+
+    /**
+     * APP1段中已读取的前缀，buffer中[0, count)有效
+     */
+    private static final class SegmentPrefix {
+
+        final InputStream is;
+        final int length;
+        byte[] buffer = new byte[256];
+        int count;
+
+        SegmentPrefix(InputStream is, int length) {
+            this.is = is;
+            this.length = length;
+        }
+
+        /**
+         * 读取到至少n字节
+         *
+         * @return 段长度或前缀上限不足n字节时返回false
+         */
+        boolean require(int n) throws IOException {
+            if (n > length || n > MAX_PREFIX) {
+                return false;
+            }
+            if (n <= count) {
+                return true;
+            }
+            if (n > buffer.length) {
+                byte[] grown = new byte[Math.min(MAX_PREFIX, Math.max(n, buffer.length * 2))];
+                System.arraycopy(buffer, 0, grown, 0, count);
+                buffer = grown;
+            }
+            readFully(is, buffer, count, n - count);
+            count = n;
+            return true;
+        }
+    }
+
+    private static int getShort(byte[] b, int offset, boolean littleEndian) {
+        int b0 = b[offset] & 0xFF;
+        int b1 = b[offset + 1] & 0xFF;
+        return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    private static int getInt(byte[] b, int offset, boolean littleEndian) {
+        int s0 = getShort(b, offset, littleEndian);
+        int s1 = getShort(b, offset + 2, littleEndian);
+        return littleEndian ? (s1 << 16) | s0 : (s0 << 16) | s1;
+    }
+
+    private static int readUnsignedShort(InputStream is) throws IOException {
+        int b0 = is.read();
+        int b1 = is.read();
+        if ((b0 | b1) < 0) {
+            return -1;
+        }
+        return (b0 << 8) | b1;
+    }
+
+    private static void readFully(InputStream is, byte[] buffer, int offset, int length) throws IOException {
+        int end = offset + length;
+        while (offset < end) {
+            int count = is.read(buffer, offset, end - offset);
+            if (count < 0) {
+                throw new IOException("Unexpected end of stream.");
+            }
+            offset += count;
+        }
+    }
+
+    private static void skipFully(InputStream is, long count) throws IOException {
+        while (count > 0) {
+            long skipped = is.skip(count);
+            if (skipped <= 0) {
+                if (is.read() < 0) {
+                    throw new IOException("Unexpected end of stream.");
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+}
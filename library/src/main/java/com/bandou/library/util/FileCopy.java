@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2016 venshine.cn@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bandou.library.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * 文件复制
+ * <p>
+ * 文件到文件使用FileChannel.transferTo，由内核直接复制，不经过Java层缓冲区；
+ * 流到文件使用每个线程复用的256KB直接内存缓冲区，每次系统调用读写一整块。
+ * 按块复制，每块之后回调进度并检查是否已取消，取消或失败时删除不完整的目标文件：
+ * <pre>
+ * FileCopy copy = new FileCopy(listener);
+ * // 后台线程
+ * copy.copy(src, dest);
+ * // 其他线程
+ * copy.cancel();
+ * </pre>
+ * 纯Java实现，不依赖Android。
+ *
+ * @author venshine
+ */
+public class FileCopy {
+
+    /**
+     * transferTo每次复制的字节数，也是回调进度、检查取消的间隔
+     */
+    private static final long CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> BUFFER = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    private final ProgressListener listener;
+    private volatile boolean cancelled;
+
+    /**
+     * 复制进度回调，在执行复制的线程调用
+     */
+    public interface ProgressListener {
+        /**
+         * On progress.
+         *
+         * @param copied 已复制的字节数
+         * @param total  总字节数，从流复制时为-1
+         */
+        void onProgress(long copied, long total);
+    }
+
+    /**
+     * 不回调进度
+     */
+    public FileCopy() {
+        this(null);
+    }
+
+    /**
+     * Instantiates a new File copy.
+     *
+     * @param listener 进度回调，可以为null
+     */
+    public FileCopy(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 文件到文件复制
+     *
+     * @param src  the src
+     * @param dest the dest，上级目录不存在时自动创建
+     * @return 复制的字节数
+     * @throws IOException 复制失败，取消时为InterruptedIOException
+     */
+    public long copy(File src, File dest) throws IOException {
+        FileInputStream in = new FileInputStream(src);
+        try {
+            return copy(in, dest, false);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * 流到文件复制，不关闭is
+     *
+     * @param is     the is，为FileInputStream时使用transferTo
+     * @param dest   the dest，上级目录不存在时自动创建
+     * @param append 是否追加到文件末尾，追加失败时不删除目标文件
+     * @return 复制的字节数
+     * @throws IOException 复制失败，取消时为InterruptedIOException
+     */
+    public long copy(InputStream is, File dest, boolean append) throws IOException {
+        File parent = dest.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Cannot create " + parent);
+        }
+        FileOutputStream out = new FileOutputStream(dest, append);
+        boolean success = false;
+        try {
+            long copied;
+            if (is instanceof FileInputStream) {
+                copied = transfer(((FileInputStream) is).getChannel(), out.getChannel());
+            } else {
+                copied = stream(Channels.newChannel(is), out.getChannel());
+            }
+            success = true;
+            return copied;
+        } finally {
+            IOUtils.closeQuietly(out);
+            if (!success && !append) {
+                dest.delete();
+            }
+        }
+    }
+
+    /**
+     * 取消正在进行的复制，当前块复制完后抛出InterruptedIOException
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Is cancelled boolean.
+     *
+     * @return the boolean
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 使用默认参数复制文件
+     *
+     * @param src  the src
+     * @param dest the dest
+     * @return 复制的字节数
+     * @throws IOException the io exception
+     */
+    public static long copyFile(File src, File dest) throws IOException {
+        return new FileCopy().copy(src, dest);
+    }
+
+    /**
+     * 从in的当前位置复制到末尾
+     */
+    private long transfer(FileChannel in, FileChannel out) throws IOException {
+        long position = in.position();
+        long total = in.size() - position;
+        if (total <= 0) {
+            // 管道（如ContentResolver返回的流）的size为0，按流复制到末尾
+            return stream(in, out);
+        }
+        long copied = 0;
+        while (copied < total) {
+            checkCancelled();
+            long n = in.transferTo(position + copied, Math.min(CHUNK_SIZE, total - copied), out);
+            if (n <= 0) {
+                // 部分文件系统不支持transferTo，剩余部分按流复制
+                in.position(position + copied);
+                return copied + stream(in, out);
+            }
+            copied += n;
+            notifyProgress(copied, total);
+        }
+        in.position(position + copied);
+        return copied;
+    }
+
+    private long stream(ReadableByteChannel in, FileChannel out) throws IOException {
+        ByteBuffer buffer = BUFFER.get();
+        buffer.clear();
+        long copied = 0;
+        long sinceProgress = 0;
+        boolean eof = false;
+        while (!eof) {
+            checkCancelled();
+            // 读满缓冲区再写，流每次read可能只返回几KB
+            while (buffer.hasRemaining()) {
+                if (in.read(buffer) < 0) {
+                    eof = true;
+                    break;
+                }
+            }
+            buffer.flip();
+            int n = buffer.remaining();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            buffer.clear();
+            copied += n;
+            sinceProgress += n;
+            if (sinceProgress >= CHUNK_SIZE) {
+                sinceProgress = 0;
+                notifyProgress(copied, -1);
+            }
+        }
+        notifyProgress(copied, -1);
+        return copied;
+    }
+
+    private void checkCancelled() throws InterruptedIOException {
+        if (cancelled) {
+            throw new InterruptedIOException("Copy cancelled.");
+        }
+    }
+
+    private void notifyProgress(long copied, long total) {
+        if (listener != null) {
+            listener.onProgress(copied, total);
+        }
+    }
+}
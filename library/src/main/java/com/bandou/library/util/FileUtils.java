@@ -16,15 +16,22 @@
 package com.bandou.library.util;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * 文件操作
@@ -38,41 +45,218 @@ public class FileUtils {
      */
     public final static String FILE_SUFFIX_SEPARATOR = ".";
 
+    /**
+     * 超过该大小的文件映射到内存后解码
+     */
+    private static final int MAP_THRESHOLD = 1024 * 1024;
+    private static final int LINE_BUFFER_SIZE = 64 * 1024;
+    private static final String DEFAULT_CHARSET = "UTF-8";
+
+    private static final AtomicWriter ATOMIC_WRITER = new AtomicWriter(AtomicWriter.SYNC_NONE);
+    private static final AtomicWriter SYNC_WRITER = new AtomicWriter(AtomicWriter.SYNC_EACH);
+
     /**
      * Read file
+     * 读取整个文件，保留原有的换行符
      *
      * @param filePath    the file path
      * @param charsetName the charset name
-     * @return string builder
+     * @return string builder，不是文件时返回null
      */
     public static StringBuilder readFile(String filePath, String charsetName) {
-        File file = new File(filePath);
-        StringBuilder fileContent = new StringBuilder("");
+        String content = readFileToString(new File(filePath), charsetName);
+        return content == null ? null : new StringBuilder(content);
+    }
+
+    /**
+     * Read file to bytes
+     * 按文件大小一次读入
+     *
+     * @param file the file
+     * @return bytes，不是文件时返回null
+     */
+    public static byte[] readFileToBytes(File file) {
         if (file == null || !file.isFile()) {
             return null;
         }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            byte[] data = new byte[checkFileSize(raf.length())];
+            raf.readFully(data);
+            return data;
+        } catch (IOException e) {
+            throw new RuntimeException("IOException", e);
+        } finally {
+            IOUtils.closeQuietly(raf);
+        }
+    }
 
-        BufferedReader reader = null;
+    /**
+     * Read file to string
+     * 小文件一次读入后解码；超过1MB的文件映射到内存后用CharsetDecoder直接解码，不再复制一份字节数组
+     *
+     * @param file        the file
+     * @param charsetName the charset name
+     * @return string，不是文件时返回null
+     */
+    public static String readFileToString(File file, String charsetName) {
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+        Charset charset = Charset.forName(charsetName);
+        RandomAccessFile raf = null;
         try {
-            InputStreamReader is = new InputStreamReader(new FileInputStream(file), charsetName);
-            reader = new BufferedReader(is);
-            String line = null;
-            while ((line = reader.readLine()) != null) {
-                if (!fileContent.toString().equals("")) {
-                    fileContent.append("\r\n");
-                }
-                fileContent.append(line);
+            raf = new RandomAccessFile(file, "r");
+            int length = checkFileSize(raf.length());
+            if (length < MAP_THRESHOLD) {
+                byte[] data = new byte[length];
+                raf.readFully(data);
+                return new String(data, charset);
             }
-            return fileContent;
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            return charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                    .decode(buffer)
+                    .toString();
         } catch (IOException e) {
             throw new RuntimeException("IOException", e);
         } finally {
+            IOUtils.closeQuietly(raf);
+        }
+    }
+
+    /**
+     * Read file line by line
+     * 逐行回调，只保留当前行，内存占用与文件大小无关
+     *
+     * @param file        the file
+     * @param charsetName the charset name
+     * @param callback    the callback
+     * @return 读取的行数，不是文件时返回-1
+     */
+    public static int readLines(File file, String charsetName, LineCallback callback) {
+        LineIterator iterator = lineIterator(file, charsetName);
+        if (iterator == null) {
+            return -1;
+        }
+        try {
+            int count = 0;
+            while (iterator.hasNext()) {
+                if (!callback.onLine(iterator.next(), count++)) {
+                    break;
+                }
+            }
+            return count;
+        } finally {
+            iterator.close();
+        }
+    }
+
+    /**
+     * Line iterator
+     * 按需读取下一行，用完后需调用close
+     *
+     * @param file        the file
+     * @param charsetName the charset name
+     * @return line iterator，不是文件时返回null
+     */
+    public static LineIterator lineIterator(File file, String charsetName) {
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+        try {
+            return new LineIterator(new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                    Charset.forName(charsetName).newDecoder()
+                            .onMalformedInput(CodingErrorAction.REPLACE)
+                            .onUnmappableCharacter(CodingErrorAction.REPLACE)), LINE_BUFFER_SIZE));
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException("FileNotFoundException", e);
+        }
+    }
+
+    private static int checkFileSize(long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("File is too large: " + length);
+        }
+        return (int) length;
+    }
+
+    /**
+     * 逐行读取的回调
+     */
+    public interface LineCallback {
+        /**
+         * On line.
+         *
+         * @param line       不含换行符的一行
+         * @param lineNumber 从0开始的行号
+         * @return 是否继续读取
+         */
+        boolean onLine(String line, int lineNumber);
+    }
+
+    /**
+     * 按需读取的行迭代器，读取出错时抛出RuntimeException
+     */
+    public static class LineIterator implements Iterator<String>, Closeable {
+
+        private final BufferedReader reader;
+        private String next;
+        private boolean finished;
+
+        LineIterator(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            if (finished) {
+                return false;
+            }
+            try {
+                next = reader.readLine();
+            } catch (IOException e) {
+                close();
+                throw new RuntimeException("IOException", e);
+            }
+            if (next == null) {
+                close();
+            }
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String line = next;
+            next = null;
+            return line;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            finished = true;
+            next = null;
             IOUtils.closeQuietly(reader);
         }
     }
 
     /**
      * Write file
+     * 每次调用都会打开、关闭文件，高频追加日志请使用{@link LogAppender}；
+     * 原地写入，需要崩溃时不留下写了一半的文件请使用{@link #writeFileAtomic(File, String, String, boolean)}
      *
      * @param filePath the file path
      * @param content  the content
@@ -83,16 +267,53 @@ public class FileUtils {
         if (StringUtils.isEmpty(content)) {
             return false;
         }
-        FileWriter fileWriter = null;
+        OutputStream os = null;
         try {
             makeDirs(filePath);
-            fileWriter = new FileWriter(filePath, append);
-            fileWriter.write(content);
+            os = new FileOutputStream(filePath, append);
+            os.write(content.getBytes(DEFAULT_CHARSET));
             return true;
         } catch (IOException e) {
             throw new RuntimeException("IOException occurred. ", e);
         } finally {
-            IOUtils.closeQuietly(fileWriter);
+            IOUtils.closeQuietly(os);
+        }
+    }
+
+    /**
+     * Write file atomically
+     * 写入临时文件后重命名覆盖目标文件，组提交等其他同步方式可直接使用{@link AtomicWriter}。
+     * 目标为符号链接或硬链接时会被替换为新文件，原文件权限不保留，目录不可写时失败
+     *
+     * @param file  the file
+     * @param data  the data
+     * @param fsync 是否在重命名前fsync，保证断电后数据不丢失
+     * @return boolean
+     */
+    public static boolean writeFileAtomic(File file, byte[] data, boolean fsync) {
+        try {
+            (fsync ? SYNC_WRITER : ATOMIC_WRITER).write(file, data);
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeException("IOException occurred. ", e);
+        }
+    }
+
+    /**
+     * Write file atomically
+     *
+     * @param file        the file
+     * @param content     the content
+     * @param charsetName the charset name
+     * @param fsync       是否在重命名前fsync，保证断电后数据不丢失
+     * @return boolean
+     */
+    public static boolean writeFileAtomic(File file, String content, String charsetName, boolean fsync) {
+        try {
+            (fsync ? SYNC_WRITER : ATOMIC_WRITER).write(file, content, charsetName);
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeException("IOException occurred. ", e);
         }
     }
 
@@ -150,23 +371,14 @@ public class FileUtils {
      * @return boolean
      */
     public static boolean writeFile(File file, InputStream is, boolean append) {
-        OutputStream o = null;
         try {
-            makeDirs(file.getAbsolutePath());
-            o = new FileOutputStream(file, append);
-            byte data[] = new byte[1024];
-            int length = -1;
-            while ((length = is.read(data)) != -1) {
-                o.write(data, 0, length);
-            }
-            o.flush();
+            new FileCopy().copy(is, file, append);
             return true;
         } catch (FileNotFoundException e) {
             throw new RuntimeException("FileNotFoundException", e);
         } catch (IOException e) {
             throw new RuntimeException("IOException", e);
         } finally {
-            IOUtils.closeQuietly(o);
             IOUtils.closeQuietly(is);
         }
     }
@@ -195,7 +407,8 @@ public class FileUtils {
     public static void moveFile(File srcFile, File destFile) throws FileNotFoundException {
         boolean rename = srcFile.renameTo(destFile);
         if (!rename) {
-            copyFile(srcFile.getAbsolutePath(), destFile.getAbsolutePath());
+            // 跨分区时重命名失败，复制后删除源文件
+            copyFile(srcFile, destFile, null);
             deleteFile(srcFile.getAbsolutePath());
         }
     }
@@ -209,8 +422,31 @@ public class FileUtils {
      * @throws FileNotFoundException the file not found exception
      */
     public static boolean copyFile(String srcFilePath, String destFilePath) throws FileNotFoundException {
-        InputStream inputStream = new FileInputStream(srcFilePath);
-        return writeFile(destFilePath, inputStream);
+        return copyFile(new File(srcFilePath), new File(destFilePath), null);
+    }
+
+    /**
+     * Copy file
+     * 文件之间使用FileChannel.transferTo复制，可通过copier回调进度或取消
+     *
+     * @param srcFile  the src file
+     * @param destFile the dest file
+     * @param copier   the copier，为null时使用默认参数；取消复制时抛出RuntimeException
+     * @return boolean
+     * @throws FileNotFoundException the file not found exception
+     */
+    public static boolean copyFile(File srcFile, File destFile, FileCopy copier) throws FileNotFoundException {
+        if (!srcFile.isFile()) {
+            throw new FileNotFoundException(srcFile.getAbsolutePath());
+        }
+        try {
+            (copier != null ? copier : new FileCopy()).copy(srcFile, destFile);
+            return true;
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RuntimeException("IOException", e);
+        }
     }
 
     /**
@@ -356,31 +592,12 @@ public class FileUtils {
         if (StringUtils.isEmpty(path)) {
             return true;
         }
-
-        File file = new File(path);
-        if (!file.exists()) {
-            return true;
-        }
-        if (file.isFile()) {
-            return file.delete();
-        }
-        if (!file.isDirectory()) {
-            return false;
-        }
-        if (file.isDirectory()) {
-            for (File f : file.listFiles()) {
-                if (f.isFile()) {
-                    f.delete();
-                } else if (f.isDirectory()) {
-                    deleteFile(f.getAbsolutePath());
-                }
-            }
-        }
-        return file.delete();
+        return deleteFile(new File(path));
     }
 
     /**
      * Delete file or folder
+     * 目录由多个线程并行删除，符号链接只删除链接本身（API 21以上）
      *
      * @param file the file
      * @return boolean
@@ -395,16 +612,18 @@ public class FileUtils {
         if (!file.isDirectory()) {
             return false;
         }
-        if (file.isDirectory()) {
-            File[] childFile = file.listFiles();
-            if (childFile == null || childFile.length == 0) {
-                return file.delete();
+        DirectoryWalker.getDefault().walk(file, new DirectoryWalker.SimpleVisitor() {
+            @Override
+            public void visitFile(File f, long size) {
+                f.delete();
             }
-            for (File f : childFile) {
-                deleteFile(f);
+
+            @Override
+            public void postVisitDirectory(File dir) {
+                dir.delete();
             }
-        }
-        return file.delete();
+        });
+        return !file.exists();
     }
 
     /**
@@ -423,25 +642,13 @@ public class FileUtils {
 
     /**
      * Get folder size
+     * 多线程统计目录下所有文件的大小，无法读取的子目录不计入
      *
      * @param file the file
      * @return folder size
      * @throws Exception the exception
      */
     public static long getFolderSize(File file) throws Exception {
-        long size = 0;
-        try {
-            File[] fileList = file.listFiles();
-            for (int i = 0; i < fileList.length; i++) {
-                if (fileList[i].isDirectory()) {
-                    size = size + getFolderSize(fileList[i]);
-                } else {
-                    size = size + fileList[i].length();
-                }
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return size;
+        return DirectoryWalker.getDefault().walk(file, null).totalSize;
     }
 }
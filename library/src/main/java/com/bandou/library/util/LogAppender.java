@@ -0,0 +1,640 @@
+/*
+ * Copyright (C) 2016 venshine.cn@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bandou.library.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 高频追加日志
+ * <p>
+ * 文件只打开一次，追加的内容先复制到环形缓冲区，由后台线程在缓冲区过半、超过刷新间隔或调用{@link #flush()}时一次写入，
+ * 代替每条日志调用一次FileUtils.writeFile(path, content, true)的打开、写入、关闭。缓冲区满时追加线程阻塞等待。
+ * 文件达到maxFileSize后重命名为编号递增的分段（app.log.1、app.log.2……），只保留最近maxSegments个，
+ * 可选在后台线程gzip压缩为app.log.N.gz：
+ * <pre>
+ * LogAppender log = new LogAppender(new File(dir, "app.log"), 4 * 1024 * 1024, 5, true);
+ * log.append(line + "\n");
+ * // 退出前
+ * log.close();
+ * </pre>
+ * 每次写入一整批，单个文件最多超出maxFileSize一个缓冲区的大小。写入失败时丢弃该批内容并计入错误数，不抛出异常。
+ * 写入线程为守护线程，进程退出前未调用flush或close的内容会丢失。线程安全。
+ *
+ * @author venshine
+ */
+public class LogAppender {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+    private static final String CHARSET = "UTF-8";
+    private static final String GZIP_SUFFIX = ".gz";
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final long flushIntervalNanos;
+    private final long maxFileSize;
+    private final int maxSegments;
+    private final boolean compress;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * 有待写入的内容时通知写入线程
+     */
+    private final Condition ready = lock.newCondition();
+    /**
+     * 写入一批后通知等待空间的追加线程与flush
+     */
+    private final Condition written = lock.newCondition();
+    private final byte[] ring;
+    /**
+     * 已写入文件与已追加的总字节数，ring中[head, tail)为待写入的内容
+     */
+    private long head;
+    private long tail;
+    private long flushTarget;
+    private boolean closed;
+    private boolean writerDone;
+
+    private final Thread writer;
+    private ExecutorService archiver;
+
+    // 以下只在写入线程访问
+    private OutputStream out;
+    private long fileSize;
+    private int segmentIndex = -1;
+
+    // 以下在lock内访问
+    private long bytesWritten;
+    private long flushCount;
+    private long rotationCount;
+    private long errorCount;
+    private IOException lastError;
+
+    /**
+     * 不分段
+     *
+     * @param file the file
+     */
+    public LogAppender(File file) {
+        this(file, DEFAULT_BUFFER_SIZE, DEFAULT_FLUSH_INTERVAL, 0, 0, false);
+    }
+
+    /**
+     * Instantiates a new Log appender.
+     *
+     * @param file        the file
+     * @param maxFileSize 文件达到该大小时分段，0表示不分段
+     * @param maxSegments 保留的分段数，0表示全部保留
+     * @param compress    是否gzip压缩分段
+     */
+    public LogAppender(File file, long maxFileSize, int maxSegments, boolean compress) {
+        this(file, DEFAULT_BUFFER_SIZE, DEFAULT_FLUSH_INTERVAL, maxFileSize, maxSegments, compress);
+    }
+
+    /**
+     * Instantiates a new Log appender.
+     *
+     * @param file                the file
+     * @param bufferSize          环形缓冲区大小，写入过半时刷新
+     * @param flushIntervalMillis 缓冲区有内容时最长多久写入一次
+     * @param maxFileSize         文件达到该大小时分段，0表示不分段
+     * @param maxSegments         保留的分段数，0表示全部保留
+     * @param compress            是否gzip压缩分段
+     */
+    public LogAppender(File file, int bufferSize, long flushIntervalMillis, long maxFileSize, int maxSegments,
+                       boolean compress) {
+        this.file = file.getAbsoluteFile();
+        this.ring = new byte[Math.max(1024, bufferSize)];
+        this.flushIntervalNanos = Math.max(1, flushIntervalMillis) * 1000000L;
+        this.maxFileSize = maxFileSize;
+        this.maxSegments = Math.max(0, maxSegments);
+        this.compress = compress;
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "LogAppender " + file.getName());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * 追加字符串，UTF-8编码，不自动换行
+     *
+     * @param content the content
+     */
+    public void append(String content) {
+        if (content == null || content.length() == 0) {
+            return;
+        }
+        byte[] data;
+        try {
+            data = content.getBytes(CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        append(data, 0, data.length);
+    }
+
+    /**
+     * 追加字节，缓冲区空间不足时阻塞到写入线程腾出空间
+     *
+     * @param data   the data
+     * @param offset the offset
+     * @param length the length
+     * @throws IllegalStateException 已关闭或写入线程已退出
+     */
+    public void append(byte[] data, int offset, int length) {
+        lock.lock();
+        try {
+            checkOpen();
+            int capacity = ring.length;
+            while (length > 0) {
+                int free = capacity - (int) (tail - head);
+                // 不超过缓冲区的内容一次复制，不会与其他线程的追加交错；更长的内容分多批写入
+                if (free == 0 || (free < length && length <= capacity)) {
+                    // 待写入内容可能不到一半，要求写入线程立即写出已有内容，而不是等到刷新间隔
+                    if (flushTarget < tail) {
+                        flushTarget = tail;
+                    }
+                    ready.signal();
+                    checkWriter();
+                    written.awaitUninterruptibly();
+                    checkOpen();
+                    continue;
+                }
+                int n = Math.min(length, free);
+                int position = (int) (tail % capacity);
+                int first = Math.min(n, capacity - position);
+                System.arraycopy(data, offset, ring, position, first);
+                if (n > first) {
+                    System.arraycopy(data, offset + first, ring, 0, n - first);
+                }
+                tail += n;
+                offset += n;
+                length -= n;
+            }
+            if (tail - head >= capacity / 2) {
+                ready.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 阻塞到调用前追加的内容全部写入文件
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            long target = tail;
+            if (flushTarget < target) {
+                flushTarget = target;
+            }
+            ready.signal();
+            while (head < target && !writerDone) {
+                written.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 写入剩余内容并关闭文件，正在进行的压缩在后台继续完成
+     */
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            ready.signal();
+            // 等待空间的追加线程抛出IllegalStateException
+            written.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        boolean interrupted = false;
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        lock.lock();
+        try {
+            if (archiver != null) {
+                archiver.shutdown();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * 尚未写入文件的字节数
+     *
+     * @return the long
+     */
+    public long getPendingBytes() {
+        lock.lock();
+        try {
+            return tail - head;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 写入文件的字节数，不含写入失败丢弃的内容
+     *
+     * @return the long
+     */
+    public long getBytesWritten() {
+        lock.lock();
+        try {
+            return bytesWritten;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 写入次数，每次写入一批追加的内容
+     *
+     * @return the long
+     */
+    public long getFlushCount() {
+        lock.lock();
+        try {
+            return flushCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 分段次数
+     *
+     * @return the long
+     */
+    public long getRotationCount() {
+        lock.lock();
+        try {
+            return rotationCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 写入、分段或压缩失败次数
+     *
+     * @return the long
+     */
+    public long getErrorCount() {
+        lock.lock();
+        try {
+            return errorCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 最近一次写入、分段或压缩失败的原因
+     *
+     * @return the last error，没有失败时为null
+     */
+    public IOException getLastError() {
+        lock.lock();
+        try {
+            return lastError;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "LogAppender[file=" + file + ",pending=" + (tail - head) + ",written=" + bytesWritten
+                    + ",flushes=" + flushCount + ",rotations=" + rotationCount + ",errors=" + errorCount + "]";
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("LogAppender has been closed.");
+        }
+    }
+
+    /**
+     * 写入线程异常退出后不会再腾出空间，等待空间的追加线程不能继续等待
+     */
+    private void checkWriter() {
+        if (writerDone) {
+            throw new IllegalStateException("LogAppender writer has stopped.");
+        }
+    }
+
+    private void writeLoop() {
+        long deadline = System.nanoTime() + flushIntervalNanos;
+        try {
+            while (true) {
+                long start;
+                long end;
+                lock.lock();
+                try {
+                    while (true) {
+                        long pending = tail - head;
+                        if (pending >= ring.length / 2 || closed || flushTarget > head) {
+                            break;
+                        }
+                        long wait = deadline - System.nanoTime();
+                        if (wait <= 0) {
+                            if (pending > 0) {
+                                break;
+                            }
+                            deadline = System.nanoTime() + flushIntervalNanos;
+                            wait = flushIntervalNanos;
+                        }
+                        try {
+                            ready.awaitNanos(wait);
+                        } catch (InterruptedException e) {
+                            // 只在close时退出
+                        }
+                    }
+                    if (closed && head == tail) {
+                        return;
+                    }
+                    start = head;
+                    end = tail;
+                } finally {
+                    lock.unlock();
+                }
+                // 追加线程只写入[tail, head + capacity)，[start, end)在锁外读取是安全的
+                boolean success = write(start, end);
+                lock.lock();
+                try {
+                    head = end;
+                    if (success) {
+                        bytesWritten += end - start;
+                        flushCount++;
+                    }
+                    written.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                deadline = System.nanoTime() + flushIntervalNanos;
+            }
+        } finally {
+            IOUtils.closeQuietly(out);
+            out = null;
+            lock.lock();
+            try {
+                writerDone = true;
+                written.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private boolean write(long start, long end) {
+        try {
+            if (out == null) {
+                File parent = file.getParentFile();
+                if (parent != null && !parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+                    throw new IOException("Cannot create " + parent);
+                }
+                out = new FileOutputStream(file, true);
+                fileSize = file.length();
+            }
+            if (maxFileSize > 0 && fileSize + (end - start) >= maxFileSize) {
+                // 在该批最后一个换行处分段，避免一行日志被拆到两个文件
+                long split = lastLineEnd(start, end);
+                writeRange(start, split);
+                rotate();
+                if (split < end) {
+                    return write(split, end);
+                }
+            } else {
+                writeRange(start, end);
+            }
+        } catch (IOException e) {
+            // 下次写入时重新打开
+            IOUtils.closeQuietly(out);
+            out = null;
+            onError(e);
+            return false;
+        }
+        return true;
+    }
+
+    private void writeRange(long start, long end) throws IOException {
+        int capacity = ring.length;
+        int length = (int) (end - start);
+        int position = (int) (start % capacity);
+        int first = Math.min(length, capacity - position);
+        out.write(ring, position, first);
+        if (length > first) {
+            out.write(ring, 0, length - first);
+        }
+        fileSize += length;
+    }
+
+    /**
+     * [start, end)中最后一个换行之后的位置，没有换行时为end
+     */
+    private long lastLineEnd(long start, long end) {
+        int capacity = ring.length;
+        for (long i = end - 1; i >= start; i--) {
+            if (ring[(int) (i % capacity)] == '\n') {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * 当前文件重命名为下一个编号的分段，压缩与删除旧分段交给后台线程
+     */
+    private void rotate() {
+        IOUtils.closeQuietly(out);
+        out = null;
+        if (segmentIndex < 0) {
+            segmentIndex = findLastSegment();
+        }
+        final int index = segmentIndex + 1;
+        final File segment = segmentFile(index);
+        if (!file.renameTo(segment)) {
+            // 继续追加到当前文件，下一批写入后重试
+            onError(new IOException("Cannot rename " + file + " to " + segment));
+            return;
+        }
+        segmentIndex = index;
+        ExecutorService executor;
+        lock.lock();
+        try {
+            rotationCount++;
+            if (archiver == null) {
+                archiver = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "LogAppender archive " + file.getName());
+                        thread.setDaemon(true);
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    }
+                });
+            }
+            executor = archiver;
+        } finally {
+            lock.unlock();
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (compress) {
+                    try {
+                        gzip(segment);
+                    } catch (IOException e) {
+                        onError(e);
+                    }
+                }
+                if (maxSegments > 0) {
+                    for (int i = index - maxSegments; i > 0; i--) {
+                        File plain = segmentFile(i);
+                        File gz = new File(plain.getPath() + GZIP_SUFFIX);
+                        if (!plain.delete() & !gz.delete()) {
+                            // 更早的分段已在之前删除
+                            break;
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    private File segmentFile(int index) {
+        return new File(file.getPath() + "." + index);
+    }
+
+    /**
+     * 已有分段的最大编号，重启后继续编号
+     */
+    private int findLastSegment() {
+        File parent = file.getParentFile();
+        String[] names = parent != null ? parent.list() : null;
+        if (names == null) {
+            return 0;
+        }
+        String prefix = file.getName() + ".";
+        int last = 0;
+        for (String name : names) {
+            if (!name.startsWith(prefix)) {
+                continue;
+            }
+            String number = name.substring(prefix.length());
+            if (number.endsWith(GZIP_SUFFIX)) {
+                number = number.substring(0, number.length() - GZIP_SUFFIX.length());
+            }
+            if (number.length() == 0 || number.length() > 9) {
+                continue;
+            }
+            boolean digits = true;
+            for (int i = 0; i < number.length() && digits; i++) {
+                digits = Character.isDigit(number.charAt(i));
+            }
+            if (digits) {
+                last = Math.max(last, Integer.parseInt(number));
+            }
+        }
+        return last;
+    }
+
+    /**
+     * 压缩为同名.gz文件后删除原文件
+     */
+    private static void gzip(File segment) throws IOException {
+        File gz = new File(segment.getPath() + GZIP_SUFFIX);
+        File temp = new File(gz.getPath() + ".tmp");
+        InputStream in = null;
+        OutputStream os = null;
+        boolean success = false;
+        try {
+            in = new FileInputStream(segment);
+            os = new GZIPOutputStream(new FileOutputStream(temp), GZIP_BUFFER_SIZE);
+            byte[] buffer = new byte[GZIP_BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                os.write(buffer, 0, n);
+            }
+            os.close();
+            os = null;
+            if (!temp.renameTo(gz)) {
+                throw new IOException("Cannot rename " + temp + " to " + gz);
+            }
+            success = true;
+        } finally {
+            IOUtils.closeQuietly(in);
+            IOUtils.closeQuietly(os);
+            if (!success) {
+                temp.delete();
+            }
+        }
+        segment.delete();
+    }
+
+    private void onError(IOException e) {
+        lock.lock();
+        try {
+            errorCount++;
+            lastError = e;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2016 venshine.cn@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bandou.library.util;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PaintFlagsDrawFilter;
+import android.graphics.Rect;
+import android.os.Build;
+
+/**
+ * 每个线程复用一组绘制缩略图用的Canvas、Paint与Rect，避免每张缩略图都新建
+ *
+ * @author venshine
+ */
+final class ThumbnailCanvas {
+
+    private static final ThreadLocal<ThumbnailCanvas> LOCAL = new ThreadLocal<ThumbnailCanvas>() {
+        @Override
+        protected ThumbnailCanvas initialValue() {
+            return new ThumbnailCanvas();
+        }
+    };
+
+    final Canvas canvas = new Canvas();
+    final Paint paint = new Paint();
+    final Rect srcBounds = new Rect();
+    final Rect dstBounds = new Rect();
+
+    private ThumbnailCanvas() {
+        canvas.setDrawFilter(new PaintFlagsDrawFilter(Paint.DITHER_FLAG, Paint.FILTER_BITMAP_FLAG));
+        paint.setDither(false);
+        paint.setFilterBitmap(true);
+    }
+
+    /**
+     * 当前线程的实例
+     */
+    static ThumbnailCanvas get() {
+        return LOCAL.get();
+    }
+
+    /**
+     * 开始在target上绘制
+     */
+    Canvas begin(Bitmap target) {
+        canvas.setBitmap(target);
+        return canvas;
+    }
+
+    /**
+     * 绘制结束，释放对目标图片的引用，API 11以下不支持setBitmap(null)
+     */
+    void end() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            canvas.setBitmap(null);
+        }
+    }
+}
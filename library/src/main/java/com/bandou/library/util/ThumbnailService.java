@@ -0,0 +1,429 @@
+/*
+ * Copyright (C) 2016 venshine.cn@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bandou.library.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 批量生成缩略图
+ * <p>
+ * 最多同时解码concurrency张图片，等待中的任务按优先级从高到低执行（同优先级先提交先执行），
+ * 列表滚动时可以调高可见项的优先级或取消已滑出屏幕的任务。
+ * 每张图片先采样解码，再按EXIF方向用当前线程复用的Canvas、Paint绘制到缩略图上，结果在主线程回调。
+ * <pre>
+ * ThumbnailService service = new ThumbnailService(2, 200, 200);
+ * ThumbnailService.Job job = service.submit(path, position, callback);
+ * // 滑出屏幕时
+ * job.cancel();
+ * </pre>
+ *
+ * @author venshine
+ */
+public class ThumbnailService {
+
+    /**
+     * 保留最近多少个任务的耗时用于计算分位数
+     */
+    private static final int LATENCY_SAMPLES = 1024;
+
+    private final int thumbWidth;
+    private final int thumbHeight;
+    private final BitmapPool pool;
+    private final ThreadPoolExecutor executor;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int latencyCount;
+    private int completedCount;
+    private int cancelledCount;
+    private int failedCount;
+
+    /**
+     * 缩略图回调，在主线程执行
+     */
+    public interface Callback {
+        /**
+         * 缩略图生成完成，已取消的任务不会回调
+         *
+         * @param job    the job
+         * @param bitmap 缩略图，解码失败时为null
+         */
+        void onThumbnail(Job job, Bitmap bitmap);
+    }
+
+    /**
+     * Instantiates a new Thumbnail service.
+     *
+     * @param concurrency 同时解码的最大数量
+     * @param thumbWidth  缩略图最大宽度
+     * @param thumbHeight 缩略图最大高度
+     */
+    public ThumbnailService(int concurrency, int thumbWidth, int thumbHeight) {
+        this(concurrency, thumbWidth, thumbHeight, null);
+    }
+
+    /**
+     * Instantiates a new Thumbnail service.
+     *
+     * @param concurrency 同时解码的最大数量
+     * @param thumbWidth  缩略图最大宽度
+     * @param thumbHeight 缩略图最大高度
+     * @param pool        缩略图从复用池获取，为null时新建
+     */
+    public ThumbnailService(int concurrency, int thumbWidth, int thumbHeight, BitmapPool pool) {
+        if (concurrency <= 0 || thumbWidth <= 0 || thumbHeight <= 0) {
+            throw new IllegalArgumentException("concurrency, thumbWidth and thumbHeight must be positive.");
+        }
+        this.thumbWidth = thumbWidth;
+        this.thumbHeight = thumbHeight;
+        this.pool = pool;
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ThumbnailService #" + count.getAndIncrement());
+                thread.setPriority(Thread.MIN_PRIORITY);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 提交一个任务
+     *
+     * @param path     图片路径
+     * @param priority 优先级，越大越先执行，如可见项使用较大的值
+     * @param callback the callback
+     * @return the job
+     */
+    public Job submit(String path, int priority, Callback callback) {
+        Job job = new Job(path, priority, callback);
+        executor.execute(job);
+        return job;
+    }
+
+    /**
+     * 批量提交，列表中靠前的图片优先级更高
+     *
+     * @param paths    图片路径
+     * @param priority 最后一张图片的优先级
+     * @param callback the callback
+     * @return 与paths顺序一致的任务
+     */
+    public List<Job> submitAll(List<String> paths, int priority, Callback callback) {
+        List<Job> jobs = new ArrayList<Job>(paths.size());
+        for (int i = 0, size = paths.size(); i < size; i++) {
+            jobs.add(submit(paths.get(i), priority + size - 1 - i, callback));
+        }
+        return jobs;
+    }
+
+    /**
+     * 取消多个任务
+     *
+     * @param jobs the jobs
+     */
+    public void cancelAll(List<Job> jobs) {
+        for (Job job : jobs) {
+            job.cancel();
+        }
+    }
+
+    /**
+     * 停止所有线程，未执行的任务不再执行
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 最近任务从提交到生成完成的耗时分位数
+     *
+     * @param percentile 0~100，如50、90、99
+     * @return 毫秒，没有数据时返回0
+     */
+    public long getLatencyPercentile(int percentile) {
+        long[] samples;
+        synchronized (latencies) {
+            samples = Arrays.copyOf(latencies, Math.min(latencyCount, LATENCY_SAMPLES));
+        }
+        if (samples.length == 0) {
+            return 0;
+        }
+        Arrays.sort(samples);
+        int index = (int) Math.ceil(Math.max(0, Math.min(100, percentile)) / 100.0 * samples.length) - 1;
+        return samples[Math.max(0, index)];
+    }
+
+    /**
+     * 已完成的任务数
+     *
+     * @return the int
+     */
+    public int getCompletedCount() {
+        synchronized (latencies) {
+            return completedCount;
+        }
+    }
+
+    /**
+     * 已取消的任务数
+     *
+     * @return the int
+     */
+    public int getCancelledCount() {
+        synchronized (latencies) {
+            return cancelledCount;
+        }
+    }
+
+    /**
+     * 解码失败的任务数
+     *
+     * @return the int
+     */
+    public int getFailedCount() {
+        synchronized (latencies) {
+            return failedCount;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ThumbnailService[completed=%d,cancelled=%d,failed=%d,p50=%dms,p90=%dms,p99=%dms]",
+                getCompletedCount(), getCancelledCount(), getFailedCount(), getLatencyPercentile(50),
+                getLatencyPercentile(90), getLatencyPercentile(99));
+    }
+
+    private void recordLatency(long millis, boolean success) {
+        synchronized (latencies) {
+            latencies[latencyCount % LATENCY_SAMPLES] = millis;
+            latencyCount++;
+            completedCount++;
+            if (!success) {
+                failedCount++;
+            }
+        }
+    }
+
+    private void recordCancel() {
+        synchronized (latencies) {
+            cancelledCount++;
+        }
+    }
+
+    private void discard(Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+        if (pool != null) {
+            pool.put(bitmap);
+        } else {
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * 采样解码并按EXIF方向绘制到缩略图
+     */
+    private Bitmap createThumbnail(Job job) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        job.options = options;
+        if (job.isCancelled()) {
+            return null;
+        }
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(job.path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0 || job.isCancelled()) {
+            return null;
+        }
+        int orientation = ExifUtils.readOrientation(job.path);
+        boolean swapped = ExifUtils.isSwapped(orientation);
+        int reqWidth = swapped ? thumbHeight : thumbWidth;
+        int reqHeight = swapped ? thumbWidth : thumbHeight;
+        options.inSampleSize = BitmapUtils.calculateInSampleSize(options.outWidth, options.outHeight,
+                reqWidth, reqHeight);
+        options.inJustDecodeBounds = false;
+        Bitmap sampled = BitmapFactory.decodeFile(job.path, options);
+        if (sampled == null || job.isCancelled()) {
+            if (sampled != null) {
+                sampled.recycle();
+            }
+            return null;
+        }
+        int width = sampled.getWidth();
+        int height = sampled.getHeight();
+        float ratio = Math.min(1f, Math.min((float) reqWidth / width, (float) reqHeight / height));
+        int dstWidth = Math.max(1, Math.round(width * ratio));
+        int dstHeight = Math.max(1, Math.round(height * ratio));
+        int outWidth = swapped ? dstHeight : dstWidth;
+        int outHeight = swapped ? dstWidth : dstHeight;
+        Bitmap thumb = pool != null ? pool.getCleanBitmap(outWidth, outHeight, Bitmap.Config.ARGB_8888)
+                : Bitmap.createBitmap(outWidth, outHeight, Bitmap.Config.ARGB_8888);
+        ThumbnailCanvas thumbnailCanvas = ThumbnailCanvas.get();
+        Canvas canvas = thumbnailCanvas.begin(thumb);
+        int saveCount = canvas.save();
+        if (orientation > ExifInterface.ORIENTATION_NORMAL) {
+            // 以缩略图中心为原点旋转、镜像
+            Matrix matrix = new Matrix();
+            matrix.postTranslate(-dstWidth / 2f, -dstHeight / 2f);
+            ExifUtils.postOrientation(matrix, orientation);
+            matrix.postTranslate(outWidth / 2f, outHeight / 2f);
+            canvas.concat(matrix);
+        }
+        thumbnailCanvas.srcBounds.set(0, 0, width, height);
+        thumbnailCanvas.dstBounds.set(0, 0, dstWidth, dstHeight);
+        canvas.drawBitmap(sampled, thumbnailCanvas.srcBounds, thumbnailCanvas.dstBounds, thumbnailCanvas.paint);
+        canvas.restoreToCount(saveCount);
+        thumbnailCanvas.end();
+        sampled.recycle();
+        return thumb;
+    }
+
+    /**
+     * 缩略图任务
+     */
+    public final class Job implements Runnable, Comparable<Job> {
+
+        private final String path;
+        private final Callback callback;
+        private final long submitTime = System.nanoTime();
+        private volatile int priority;
+        private volatile long order;
+        private volatile boolean cancelled;
+        /**
+         * 结果已交给回调，之后的取消不计入取消数
+         */
+        private volatile boolean delivered;
+        /**
+         * 正在解码时使用的选项，取消时通过它中断解码
+         */
+        private volatile BitmapFactory.Options options;
+
+        Job(String path, int priority, Callback callback) {
+            this.path = path;
+            this.priority = priority;
+            this.callback = callback;
+            this.order = sequence.getAndIncrement();
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        /**
+         * 修改优先级，只对尚未开始的任务有效
+         *
+         * @param priority the priority
+         */
+        public void setPriority(int priority) {
+            if (executor.remove(this)) {
+                this.priority = priority;
+                this.order = sequence.getAndIncrement();
+                executor.execute(this);
+            } else {
+                this.priority = priority;
+            }
+        }
+
+        /**
+         * 取消任务，尚未开始的任务从队列中移除，正在解码的任务中断解码，已生成的结果丢弃
+         */
+        public void cancel() {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            executor.remove(this);
+            BitmapFactory.Options decoding = options;
+            if (decoding != null) {
+                decoding.requestCancelDecode();
+            }
+            if (!delivered) {
+                recordCancel();
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            Bitmap thumb = null;
+            try {
+                thumb = createThumbnail(this);
+            } catch (OutOfMemoryError e) {
+                e.printStackTrace();
+            }
+            if (cancelled) {
+                discard(thumb);
+                return;
+            }
+            recordLatency((System.nanoTime() - submitTime) / 1000000L, thumb != null);
+            final Bitmap result = thumb;
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (cancelled) {
+                        discard(result);
+                    } else {
+                        delivered = true;
+                        if (callback != null) {
+                            callback.onThumbnail(Job.this, result);
+                        }
+                    }
+                }
+            });
+        }
+
+        @Override
+        public int compareTo(Job another) {
+            if (priority != another.priority) {
+                return priority > another.priority ? -1 : 1;
+            }
+            return order < another.order ? -1 : (order == another.order ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2016 venshine.cn@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bandou.library.util;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Build;
+import android.view.View;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 控件截图
+ * <p>
+ * 直接调用View.draw绘制到复用池中的图片，不开启绘图缓存，也就不会额外软件重绘一次到缓存图片；
+ * 缩放截图时在Canvas上缩放后绘制，不生成原尺寸的中间图片。保存截图时只在主线程绘制，编码与写文件交给后台线程：
+ * <pre>
+ * ViewCapture capture = new ViewCapture(pool);
+ * capture.captureToFile(view, 0.5f, Bitmap.CompressFormat.JPEG, 85, file, callback);
+ * </pre>
+ * capture、captureToFile必须在主线程调用。
+ *
+ * @author venshine
+ */
+public class ViewCapture {
+
+    /**
+     * 未指定线程池的实例共用的后台编码线程，守护线程，不需要关闭
+     */
+    private static volatile ExecutorService sharedExecutor;
+
+    private final BitmapPool pool;
+    private final Executor executor;
+    private final BitmapEncoder encoder;
+    /**
+     * 截图专用的Canvas，不设置DrawFilter，绘制效果与屏幕一致；capture只在主线程调用，不需要按线程区分
+     */
+    private final Canvas canvas = new Canvas();
+
+    private long captureCount;
+    private long totalCaptureMillis;
+    private long lastCaptureMillis;
+
+    /**
+     * 使用所有实例共用的单个后台守护线程编码
+     *
+     * @param pool 复用池，为null时每次新建图片
+     */
+    public ViewCapture(BitmapPool pool) {
+        this(pool, getSharedExecutor());
+    }
+
+    /**
+     * Instantiates a new View capture.
+     *
+     * @param pool     复用池，为null时每次新建图片
+     * @param executor 编码使用的后台线程池，为null时只能同步保存；由调用方负责关闭，或调用{@link #shutdown()}
+     */
+    public ViewCapture(BitmapPool pool, Executor executor) {
+        this.pool = pool;
+        this.executor = executor;
+        this.encoder = new BitmapEncoder(executor);
+    }
+
+    /**
+     * 截图
+     *
+     * @param view   the view
+     * @param scale  缩放比例，如0.5为一半分辨率
+     * @param config 图片格式，不需要透明度时RGB_565可节省一半内存
+     * @return 截图，用完后调用{@link #release(Bitmap)}；控件尚未布局时返回null
+     */
+    public Bitmap capture(View view, float scale, Bitmap.Config config) {
+        long start = System.nanoTime();
+        int width = Math.round(view.getWidth() * scale);
+        int height = Math.round(view.getHeight() * scale);
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        Bitmap bitmap = pool != null ? pool.getCleanBitmap(width, height, config)
+                : Bitmap.createBitmap(width, height, config);
+        canvas.setBitmap(bitmap);
+        int count = canvas.save();
+        try {
+            canvas.scale(scale, scale);
+            canvas.translate(-view.getScrollX(), -view.getScrollY());
+            view.draw(canvas);
+        } finally {
+            canvas.restoreToCount(count);
+            // API 11以下不支持setBitmap(null)
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                canvas.setBitmap(null);
+            }
+        }
+        lastCaptureMillis = (System.nanoTime() - start) / 1000000L;
+        totalCaptureMillis += lastCaptureMillis;
+        captureCount++;
+        return bitmap;
+    }
+
+    /**
+     * 按ARGB_8888截图并在后台线程保存，保存结束后截图自动放回复用池
+     *
+     * @param view     the view
+     * @param scale    缩放比例
+     * @param format   the format
+     * @param quality  the quality
+     * @param target   目标文件
+     * @param callback 完成回调，在主线程执行，可以为null
+     * @return 控件尚未布局时返回false，不回调
+     */
+    public boolean captureToFile(View view, float scale, Bitmap.CompressFormat format, int quality,
+                                 File target, BitmapEncoder.Callback callback) {
+        return captureToFile(view, scale, Bitmap.Config.ARGB_8888, format, quality, target, callback);
+    }
+
+    /**
+     * 截图并在后台线程保存，保存结束后截图自动放回复用池
+     *
+     * @param view     the view
+     * @param scale    缩放比例
+     * @param config   截图的图片格式，RGB_565省内存但会出现色带
+     * @param format   the format
+     * @param quality  the quality
+     * @param target   目标文件
+     * @param callback 完成回调，在主线程执行，可以为null
+     * @return 控件尚未布局时返回false，不回调
+     */
+    public boolean captureToFile(View view, float scale, Bitmap.Config config, Bitmap.CompressFormat format,
+                                 int quality, File target, final BitmapEncoder.Callback callback) {
+        final Bitmap bitmap = capture(view, scale, config);
+        if (bitmap == null) {
+            return false;
+        }
+        encoder.encodeAsync(bitmap, format, quality, target, false, new BitmapEncoder.Callback() {
+            @Override
+            public void onComplete(BitmapEncoder.Result result) {
+                release(bitmap);
+                if (callback != null) {
+                    callback.onComplete(result);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 按ARGB_8888截图并同步保存
+     *
+     * @param view    the view
+     * @param scale   缩放比例
+     * @param format  the format
+     * @param quality the quality
+     * @param target  目标文件
+     * @return the result，控件尚未布局时返回null
+     */
+    public BitmapEncoder.Result captureToFileSync(View view, float scale, Bitmap.CompressFormat format,
+                                                 int quality, File target) {
+        return captureToFileSync(view, scale, Bitmap.Config.ARGB_8888, format, quality, target);
+    }
+
+    /**
+     * 截图并同步保存
+     *
+     * @param view    the view
+     * @param scale   缩放比例
+     * @param config  截图的图片格式，RGB_565省内存但会出现色带
+     * @param format  the format
+     * @param quality the quality
+     * @param target  目标文件
+     * @return the result，控件尚未布局时返回null
+     */
+    public BitmapEncoder.Result captureToFileSync(View view, float scale, Bitmap.Config config,
+                                                 Bitmap.CompressFormat format, int quality, File target) {
+        Bitmap bitmap = capture(view, scale, config);
+        if (bitmap == null) {
+            return null;
+        }
+        try {
+            return encoder.encode(bitmap, format, quality, target, false);
+        } finally {
+            release(bitmap);
+        }
+    }
+
+    /**
+     * 归还截图
+     *
+     * @param bitmap the bitmap
+     */
+    public void release(Bitmap bitmap) {
+        if (pool != null) {
+            pool.put(bitmap);
+        } else {
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * 关闭构造时传入的编码线程池，调用后不能再使用captureToFile；共用的线程不会被关闭
+     */
+    public void shutdown() {
+        if (executor instanceof ExecutorService && executor != sharedExecutor) {
+            ((ExecutorService) executor).shutdown();
+        }
+    }
+
+    /**
+     * 截图次数
+     *
+     * @return the long
+     */
+    public long getCaptureCount() {
+        return captureCount;
+    }
+
+    /**
+     * 最近一次绘制截图的耗时，毫秒，不含编码
+     *
+     * @return the long
+     */
+    public long getLastCaptureMillis() {
+        return lastCaptureMillis;
+    }
+
+    /**
+     * 平均绘制耗时，毫秒，不含编码
+     *
+     * @return the double
+     */
+    public double getAverageCaptureMillis() {
+        return captureCount == 0 ? 0 : (double) totalCaptureMillis / captureCount;
+    }
+
+    /**
+     * 编码统计：保存次数、字节数与耗时
+     *
+     * @return the encoder
+     */
+    public BitmapEncoder getEncoder() {
+        return encoder;
+    }
+
+    private static synchronized ExecutorService getSharedExecutor() {
+        if (sharedExecutor == null) {
+            sharedExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ViewCapture");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sharedExecutor;
+    }
+
+    @Override
+    public String toString() {
+        return "ViewCapture[captures=" + captureCount + ",lastMs=" + lastCaptureMillis + "," + encoder + "]";
+    }
+}